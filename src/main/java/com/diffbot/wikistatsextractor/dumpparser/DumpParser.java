@@ -8,15 +8,23 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
@@ -27,15 +35,31 @@ import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
  * 
  * To summarize it, a dumpparser launches: 
  * - A reader thread, that read a given text as fast as possible. It splits the big 
- * text files into "pages" (aka "chunks"), and put those pages into a ConcurrentQueue. 
+ * text files into "pages" (aka "chunks"), and put those pages into a bounded
+ * BlockingQueue (the reader waits when the workers are late). The pages are
+ * the raw UTF-8 bytes (see Page), decoded by the workers, and they are sent
+ * by batches of about batch_size bytes (see PageBatch).
  * - A few workers threads (you configure this) which pick pages from the queue and
- * process them. If an output is configured they can put String in a concurrent
+ * process them. If an output is configured they can put String in a second bounded
  * queue and they will be written in output. 
  * - A writer thread which pick sentences from an output queue and write them in 
  * the file you specify.
  * 
+ * Idle threads are parked on the queues. The end of the dump is signaled by
+ * PageBatch.END_OF_STREAM, one per worker in the page queue, then one in the output queue
+ * once the last worker is done.
+ * 
+ * A dump can be made of several files, which are read in parallel by up to
+ * nb_file_readers reader threads.
+ * 
  * Segmentation into pages can be done either by a certain number of line, or
- * using delimiters (by default "<page>" and "</page>".
+ * using delimiters (by default "<page>" and "</page>". In the second case, an
+ * uncompressed file is memory mapped and split by several reader threads
+ * (see MappedPageReader). A file written by a RecordWriter can also be read
+ * record by record.
+ * 
+ * The throughput of each stage (readers, workers, writer) is published
+ * through JMX and printed every stats_period seconds, see DumpParserStats.
  * 
  * It is not that intuitive, I recommend you to have a look at the class
  * DumpParserTutorial to get an idea of how you can use it.
@@ -48,77 +72,145 @@ import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 public class DumpParser {
 
 	public static abstract class Worker implements Runnable {
-		public ConcurrentLinkedQueue<String> pageQueue;
-		public ConcurrentLinkedQueue<String> outputQueue;
-		int element_written_in_output = 0;
+		public BlockingQueue<PageBatch> pageQueue;
+		public BlockingQueue<String> outputQueue;
 
 		/**
-		 * an array of size one which first element tells if the reader is
-		 * currently reading
+		 * shared between all the workers of a DumpParser, the last one to
+		 * finish tells the writer that nothing more will come.
 		 */
-		public Boolean[] isReaderActive;
+		AtomicInteger nb_active_workers;
 
-		/**
-		 * an array of size one which first element tells if the worker is
-		 * currently working
-		 */
-		public Boolean[] isWorkerActive = new Boolean[1];
+		/** used to decode the pages that are not on the heap (memory mapped) */
+		private byte[] decoding_buffer = new byte[1024 * 1024];
+
+		/** time spent on the pages, and waiting for them (see DumpParserStats) */
+		volatile long busy_nanos = 0, idle_nanos = 0;
 
 		public void run() {
-			isWorkerActive[0] = true;
-			while (true) {
-				if (pageQueue.isEmpty()) {
-					if (isReaderActive[0]) {
-						/** queue empty, we wait a bit for it to be filled */
-						try {
-							Thread.sleep(1);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
-						continue;
-					} else {
+			try {
+				while (true) {
+					/** blocks until the reader gives us something */
+					long wait_start = System.nanoTime();
+					PageBatch batch = pageQueue.take();
+					long work_start = System.nanoTime();
+					idle_nanos += work_start - wait_start;
+					if (batch == PageBatch.END_OF_STREAM)
 						break;
+
+					/** actually does something with the pages */
+					doSomethingWithBatch(batch);
+					busy_nanos += System.nanoTime() - work_start;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				if (nb_active_workers.decrementAndGet() == 0 && outputQueue != null) {
+					try {
+						outputQueue.put(END_OF_STREAM);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
 					}
 				}
-				String page = pageQueue.poll();
-				if (page == null)
-					continue;
+			}
+		}
 
-				/** actually does something with the page */
-				doSomethingWithPage(page);
+		/**
+		 * receives a few consecutive pages. By default, gives them one by one
+		 * to doSomethingWithPage(Page). Override it to process a whole batch
+		 * at once.
+		 */
+		public void doSomethingWithBatch(PageBatch batch) {
+			for (int i = 0; i < batch.size(); i++) {
+				try {
+					doSomethingWithPage(batch.get(i));
+				} catch (RuntimeException e) {
+					// a single broken page should not take the worker down,
+					// the reader would then wait forever on a full queue
+					e.printStackTrace();
+				}
 			}
-			isWorkerActive[0] = false;
+		}
+
+		/**
+		 * receives the raw UTF-8 bytes of the page. By default, decode them
+		 * (in the worker thread) and call doSomethingWithPage(String). Override
+		 * it, or extend ByteWorker, to work directly on the bytes.
+		 */
+		public void doSomethingWithPage(Page page) {
+			doSomethingWithPage(page.decode(decoding_buffer));
 		}
 
 		/** Override me, actualy do something with the page */
 		public abstract void doSomethingWithPage(String page);
 
 		/**
-		 * write something in the output. By default, no "\n" is added
+		 * write something in the output. By default, no "\n" is added. Blocks
+		 * if the output queue is full, until the writer catches up.
 		 */
 		public void writeInOutput(String s) {
-			element_written_in_output++;
-			if (element_written_in_output % 5000 == 0) {
-				// not a constant time operation, hence we do it only once every
-				// 5000 times
-				int element_in_OQ = outputQueue.size();
-				if (element_in_OQ > 20000) {
-					// the output queue seems jammed, let's wait a bit.
-					try {
-						Thread.sleep(1);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					element_written_in_output--;
-				}
+			try {
+				outputQueue.put(s);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
-			outputQueue.add(s);
 		}
 
 	}
 
+	/**
+	 * A worker that never decodes the pages: it gets the bytes as the reader
+	 * found them.
+	 */
+	public static abstract class ByteWorker extends Worker {
+		@Override
+		public abstract void doSomethingWithPage(Page page);
+
+		@Override
+		public void doSomethingWithPage(String page) {
+			byte[] bytes = page.getBytes(Page.UTF8);
+			doSomethingWithPage(new Page(bytes, 0, bytes.length));
+		}
+	}
+
+	/**
+	 * put in the output queue to signal that nothing will follow. Compared by
+	 * reference, so it can not be mistaken with a real String.
+	 */
+	static final String END_OF_STREAM = new String("<end_of_stream/>");
+
+	/** default size of a batch of pages given to a worker, in bytes */
+	public static int BATCH_SIZE = 256 * 1024;
+
+	int batch_size = BATCH_SIZE;
+
+	/**
+	 * the reader groups the pages in batches of about batch_size bytes. A
+	 * small batch_size (down to 1, one page per batch) gives a smoother
+	 * distribution of the work, a big one less contention on the queue.
+	 */
+	public void setBatchSize(int batch_size) {
+		this.batch_size = batch_size;
+	}
+
+	/** max number of batches waiting for a worker, the reader blocks beyond that */
+	int batch_queue_capacity = 100;
+
+	public void setBatchQueueCapacity(int capacity) {
+		batch_queue_capacity = capacity;
+	}
+
+	/** max number of String waiting to be written, the workers block beyond that */
+	int output_queue_capacity = 20000;
+
+	public void setOutputQueueCapacity(int capacity) {
+		output_queue_capacity = capacity;
+	}
+
 	String delimiter_start = "<page>";
 	String delimiter_end = "</page>";
+	/** the same, as UTF-8, for the readers */
+	byte[] delimiter_start_bytes, delimiter_end_bytes;
 
 	/** set the delimiters for a page */
 	public void setDelimiters(String start, String end) {
@@ -126,6 +218,18 @@ public class DumpParser {
 		this.delimiter_end = end;
 	}
 
+	/** null if every page is given to the workers */
+	PageFilter page_filter = null;
+
+	/**
+	 * only the pages accepted by this filter (evaluated by the reader on the
+	 * header of the page) will reach the workers. Ignored when the dump is
+	 * split by number of lines.
+	 */
+	public void setPageFilter(PageFilter page_filter) {
+		this.page_filter = page_filter;
+	}
+
 	String path_to_output = null;
 
 	/** whether or not we set an output */
@@ -144,6 +248,19 @@ public class DumpParser {
 		return Math.min(Runtime.getRuntime().availableProcessors(), 10);
 	}
 
+	/**
+	 * default number of threads splitting an uncompressed dump into pages,
+	 * each one reading a different part of the memory mapped file. 0 means
+	 * that the file is read line by line, like a compressed one.
+	 */
+	public static int NB_MAPPED_READERS = 4;
+
+	int nb_mapped_readers = NB_MAPPED_READERS;
+
+	public void setNbMappedReaders(int nb_readers) {
+		nb_mapped_readers = nb_readers;
+	}
+
 	/**
 	 * if this is set to true, then the parser will not look for <page> </page>,
 	 * but instead will throw "nb_lines_per_page" lines to each worker,
@@ -155,6 +272,17 @@ public class DumpParser {
 		setSplitByNumberOfLine_ = set;
 	}
 
+	/**
+	 * if this is set to true, the file is not a text but a file written by a
+	 * RecordWriter, and each record is a page. The delimiters, the number of
+	 * lines and the page filter are then ignored.
+	 */
+	boolean split_by_records = false;
+
+	public void setSplitByRecords(boolean set) {
+		split_by_records = set;
+	}
+
 	/** set the nb of line that we consider one page */
 	int nb_lines_per_page = 500;
 
@@ -162,49 +290,138 @@ public class DumpParser {
 		nb_lines_per_page = nb_lines;
 	}
 
+	/**
+	 * default period, in seconds, of the line of statistics printed during an
+	 * extraction (see DumpParserStats). 0 to print it only at the end.
+	 */
+	public static int STATS_PERIOD = 10;
+
+	int stats_period = STATS_PERIOD;
+
+	public void setStatsPeriod(int seconds) {
+		stats_period = seconds;
+	}
+
+	/** the counters of the current (or last) extraction */
+	DumpParserStats stats = null;
+
+	public DumpParserStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * default number of files read at the same time, each one by its own
+	 * reader (and decompressor), when the dump is split in several files.
+	 * Each file reader has its own NB_MAPPED_READERS or
+	 * NB_DECOMPRESSION_THREADS threads: the numbers multiply.
+	 */
+	public static int NB_FILE_READERS = 4;
+
+	int nb_file_readers = NB_FILE_READERS;
+
+	public void setNbFileReaders(int nb_readers) {
+		nb_file_readers = nb_readers;
+	}
+
+	/**
+	 * default number of threads decompressing a multistream bzip2 dump. Set
+	 * it to 1 to decompress such a file on the reader thread.
+	 */
+	public static int NB_DECOMPRESSION_THREADS = 4;
+
+	int nb_decompression_threads = NB_DECOMPRESSION_THREADS;
+
+	public void setNbDecompressionThreads(int nb_threads) {
+		nb_decompression_threads = nb_threads;
+	}
+
 	/**
 	 * The dump parser can deal with gzip, bzip or uncompressed files. This file
 	 * select the right reader.
 	 */
 	public BufferedReader getDumpReader(String file)
 			throws UnsupportedEncodingException, FileNotFoundException {
+		return new BufferedReader(new InputStreamReader(getDumpInputStream(file), "UTF-8"), 16 * 1024);
+	}
+
+	/**
+	 * Same as above, but gives the (decompressed) bytes. A multistream bzip2
+	 * file (see MultiStreamBZip2InputStream) is decompressed on
+	 * nb_decompression_threads threads.
+	 */
+	public InputStream getDumpInputStream(String file) throws FileNotFoundException {
 		// attempt to use gzip first
-		BufferedReader br = null;
 		try {
-			br = new BufferedReader(new InputStreamReader(new GZIPInputStream(
-					new FileInputStream(new File(file))), "UTF-8"), 16 * 1024);
+			return new GZIPInputStream(new FileInputStream(new File(file)), 64 * 1024);
 		} catch (IOException e) {
 			System.out.println(file
 					+ " is not gzipped, trying bzip input stream..");
+			if (nb_decompression_threads > 1 && MultiStreamBZip2InputStream.isMultiStream(file)) {
+				try {
+					System.out.println(file + " is a multistream bzip2 file, decompressing it on "
+							+ nb_decompression_threads + " threads");
+					return new MultiStreamBZip2InputStream(file, nb_decompression_threads);
+				} catch (IOException f) {
+					f.printStackTrace();
+				}
+			}
 			try {
 				FileInputStream fin = new FileInputStream(file);
 				BufferedInputStream in = new BufferedInputStream(fin);
-				BZip2CompressorInputStream bzIn = new BZip2CompressorInputStream(
-						in);
-				br = new BufferedReader(new InputStreamReader(bzIn));
+				// the dump may be made of several concatenated streams
+				return new BZip2CompressorInputStream(in, true);
 			} catch (IOException f) {
 				System.out.println(file
 						+ " is not bzip commpressed, trying decompressed file");
-				br = new BufferedReader(new InputStreamReader(
-						new FileInputStream(new File(file)), "UTF8"), 16 * 1024);
+				return new FileInputStream(new File(file));
 			}
 		}
-		return br;
 	}
 
-	/** Main method, launches the dump parsing on a single file dump */
+	/**
+	 * Main method, launches the dump parsing on a single file dump. It can
+	 * also be a list of files separated by commas, or a directory (see
+	 * getDumpFiles)
+	 */
 	public void extract(final String path_to_dump) {
-		List<String> dumps_to_extract = new ArrayList<String>();
-		dumps_to_extract.add(path_to_dump);
-		extract(dumps_to_extract, Long.MAX_VALUE);
+		extract(getDumpFiles(path_to_dump), Long.MAX_VALUE);
 	}
 	
 	/** Main method, launches the dump parsing on a single file dump, allows to specify a max number of pages
 	 * (for debug purposes) */
 	public void extract(final String path_to_dump, long max_nb_pages_to_extract ) {
+		extract(getDumpFiles(path_to_dump), max_nb_pages_to_extract);
+	}
+
+	/**
+	 * the files of a dump split in several parts (like the
+	 * pages-articles1.xml-p1p41242.bz2 ... of wikipedia): either a list of
+	 * files separated by commas, or a directory, whose files are all taken
+	 * but the hidden ones and the multistream indexes. A path that exists is
+	 * never split, even if it contains a comma.
+	 */
+	public static List<String> getDumpFiles(String path_to_dump) {
 		List<String> dumps_to_extract = new ArrayList<String>();
-		dumps_to_extract.add(path_to_dump);
-		extract(dumps_to_extract, max_nb_pages_to_extract);
+		String[] paths = new File(path_to_dump).exists() ? new String[] { path_to_dump } : path_to_dump.split(",");
+		for (String path : paths) {
+			path = path.trim();
+			if (path.length() == 0)
+				continue;
+			File f = new File(path);
+			if (!f.isDirectory()) {
+				dumps_to_extract.add(path);
+				continue;
+			}
+			File[] files = f.listFiles();
+			if (files == null)
+				continue;
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.isFile() && !file.isHidden() && !file.getName().contains("-index.txt"))
+					dumps_to_extract.add(file.getPath());
+			}
+		}
+		return dumps_to_extract;
 	}
 
 	/**
@@ -236,146 +453,68 @@ public class DumpParser {
 
 		/**
 		 * execute the thread that looks greedily for <page> and </page>, and
-		 * send the String in between to a queue
+		 * send the bytes in between to a queue
 		 */
-		final ConcurrentLinkedQueue<String> pageQueue = new ConcurrentLinkedQueue<String>();
-		final ConcurrentLinkedQueue<String> output = new ConcurrentLinkedQueue<String>();
-		final Boolean[] isReaderActive = new Boolean[1];
-		isReaderActive[0] = true;
-
-		
+		final BlockingQueue<PageBatch> pageQueue = new ArrayBlockingQueue<PageBatch>(batch_queue_capacity);
+		final BlockingQueue<String> output = new ArrayBlockingQueue<String>(output_queue_capacity);
+		final int nb_workers = workers.size();
+		delimiter_start_bytes = delimiter_start.getBytes(Page.UTF8);
+		delimiter_end_bytes = delimiter_end.getBytes(Page.UTF8);
+		final DumpParserStats stats = new DumpParserStats(pageQueue, output, workers);
+		this.stats = stats;
+		stats.register();
+		ScheduledExecutorService stats_logger = null;
+		if (stats_period > 0) {
+			stats_logger = Executors.newSingleThreadScheduledExecutor();
+			stats_logger.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					stats.log();
+				}
+			}, stats_period, stats_period, TimeUnit.SECONDS);
+		}
 
 		/**
 		 * first thread to be executed, the reader. This things reads as fast as
-		 * it can (well, it's not fully optimised right now). There are two
-		 * logic, that I separated (I think it is clearer that way)
+		 * it can. It does not decode anything, the pages are given as bytes to 
+		 * the workers. Either we send the text to the workers every
+		 * "nb_lines_per_page" lines, or each page is something comprised between 
+		 * <page> and </page>. The files are independent: up to nb_file_readers
+		 * of them are read at the same time, each by its own thread.
 		 */
-		if (setSplitByNumberOfLine_) {
-			// in this case, we read and send the text to the workers every
-			// "nb_lines_per_page" lines
-			es.execute(new Runnable() {
-				public void run() {
-					try {
-						long counter_pages=0;
-						for (final String path_to_dump : path_to_dumps) {
-							System.out.println("start parsing the dump: "
-									+ path_to_dump);
-							File f = new File(path_to_dump);
-							if(!f.exists() || f.isDirectory()) { 
-							    System.out.println(path_to_dump+" does not exist or is a directory. Ignored.");
-							    continue;
-							}
-							System.out.println();
-							BufferedReader br = getDumpReader(path_to_dump);
-							String line = br.readLine();
-							StringBuilder sb = new StringBuilder();
-							while (line != null) {
-								counter_pages++;
-								if (counter_pages % nb_lines_per_page == 0) {
-									pageQueue.add(sb.toString());
-									// check if the queue is full
-									if (counter_pages % nb_lines_per_page * 300 == 0) {
-										while (pageQueue.size() > 300) {
-											/** page Queue is full */
-											try {
-												Thread.sleep(1);
-											} catch (InterruptedException e) {
-												e.printStackTrace();
-											}
-										}
-									}
-									if (counter_pages % 100000 == 0) {
-										String display = "\rParsed " + counter_pages
-												+ " pages";
-										System.out.print(display);
-									}
-									if (counter_pages>max_nb_pages_to_extract){
-										break;
-									}
-									sb.setLength(0);
-								}
-								sb.append(line);
-								sb.append('\n');
-								line = br.readLine();
-							}
-							// we send the remaining things to the workers
-							pageQueue.add(sb.toString());
-							br.close();
-						}
-
-					} catch (IOException ioe) {
-						ioe.printStackTrace();
-					}
-					isReaderActive[0] = false;
-				}
-			});
-		} else {
-			// second case, each page is something comprised between <page> and
-			// </page>
-			es.execute(new Runnable() {
-				public void run() {
-					try {
-						long counter_pages=0;
-						for (final String path_to_dump : path_to_dumps) {
-							System.out.println("start parsing the dump: "
-									+ path_to_dump);
-							File f = new File(path_to_dump);
-							if(!f.exists() || f.isDirectory()) { 
-							    System.out.println(path_to_dump+" does not exist or is a directory. Ignored.");
-							    continue;
-							}
-							System.out.println();
-							BufferedReader br = getDumpReader(path_to_dump);
-							String line = br.readLine();
-							boolean page_started = false;
-							StringBuilder sb = new StringBuilder();
-							while (line != null) {
-								if (line.contains(delimiter_end)) {
-									page_started = false;
-									pageQueue.add(sb.toString());
-									counter_pages++;
-									if (counter_pages % 10000 == 0) {
-										while (pageQueue.size() > 10000) {
-											/** page Queue is full */
-											try {
-												Thread.sleep(1);
-											} catch (InterruptedException e) {
-												e.printStackTrace();
-											}
-										}
-									}
-									if (counter_pages % 100000 == 0) 
-										System.out.print("\rParsed " + counter_pages + " pages");
-									if (counter_pages>max_nb_pages_to_extract){
-										break;
-									}
-									sb.setLength(0);
-								}
-								if (page_started) {
-									sb.append(line);
-									sb.append("\n");
-								}
-								if (line.contains(delimiter_start)) {
-									page_started = true;
+		es.execute(new Runnable() {
+			public void run() {
+				try {
+					int nb_readers = Math.max(1, Math.min(nb_file_readers, path_to_dumps.length));
+					ExecutorService file_readers = Executors.newFixedThreadPool(nb_readers);
+					for (final String path_to_dump : path_to_dumps) {
+						file_readers.execute(new Runnable() {
+							public void run() {
+								try {
+									readFile(path_to_dump, pageQueue, stats, max_nb_pages_to_extract);
+								} catch (IOException ioe) {
+									ioe.printStackTrace();
+								} catch (InterruptedException e) {
+									Thread.currentThread().interrupt();
 								}
-								line = br.readLine();
 							}
-							br.close();
-						}
-
-					} catch (IOException ioe) {
-						ioe.printStackTrace();
+						});
 					}
-					isReaderActive[0] = false;
+					file_readers.shutdown();
+					file_readers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					signalEndOfStream(pageQueue, PageBatch.END_OF_STREAM, nb_workers);
 				}
-			});
-
-		}
+			}
+		});
 
 		/** then add the workers */
+		AtomicInteger nb_active_workers = new AtomicInteger(nb_workers);
 		for (Worker w : workers) {
 			w.pageQueue = pageQueue;
-			w.isReaderActive = isReaderActive;
+			w.nb_active_workers = nb_active_workers;
+			w.outputQueue = null;
 			if (path_to_output != null) {
 				w.outputQueue = output;
 			}
@@ -391,48 +530,25 @@ public class DumpParser {
 				public void run() {
 					try {
 						BufferedWriter bw = new BufferedWriter(
-								new OutputStreamWriter(new FileOutputStream(
-										new File(path_to_output_final)), "UTF8"),
+								new OutputStreamWriter(new DumpParserStats.CountingOutputStream(new FileOutputStream(
+										new File(path_to_output_final)), stats.bytes_written), "UTF8"),
 								16 * 1024);
-						while (true) {
-							String s = output.poll();
-							if (s == null) {
-								try {
-									Thread.sleep(1);
-								} catch (InterruptedException e) {
-									e.printStackTrace();
-								}
-								if (!isReaderActive[0] && output.isEmpty()) {
-									// so the reader has finished. But did the
-									// worker finish?
-									boolean all_workers_finished = true;
-									for (Worker w : workers) {
-										if (w.isWorkerActive[0]) {
-											all_workers_finished = false;
-										}
-									}
-									try {
-										Thread.sleep(100);
-									} catch (InterruptedException e) {
-										e.printStackTrace();
-									}
-									if (!isReaderActive[0]
-											&& all_workers_finished
-											&& output.isEmpty()) {
-										break;
-									}
-								} else {
-									continue;
-								}
-
-							} else {
+						try {
+							/** the last worker to finish puts END_OF_STREAM */
+							String s = output.take();
+							while (s != END_OF_STREAM) {
 								bw.write(s);
+								s = output.take();
 							}
+						} finally {
+							bw.close();
 						}
-						bw.flush();
-						bw.close();
 					} catch (IOException ioe) {
 						ioe.printStackTrace();
+						// keep consuming, otherwise the workers would block forever
+						drainUntilEndOfStream(output);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
 					}
 				}
 			});
@@ -448,8 +564,101 @@ public class DumpParser {
 		}
 
 		/** We are done */
+		if (stats_logger != null)
+			stats_logger.shutdownNow();
+		stats.log();
+		stats.unregister();
 		System.out.println("done in " + (System.currentTimeMillis() - start)
 				+ "ms");
 	}
 
+	/** split one file of the dump into pages, and send them to the workers */
+	void readFile(String path_to_dump, BlockingQueue<PageBatch> pageQueue, DumpParserStats stats, long max_nb_pages_to_extract)
+			throws IOException, InterruptedException {
+		System.out.println("start parsing the dump: "
+				+ path_to_dump);
+		File f = new File(path_to_dump);
+		if(!f.exists() || f.isDirectory()) { 
+		    System.out.println(path_to_dump+" does not exist or is a directory. Ignored.");
+		    return;
+		}
+		System.out.println();
+		if (!split_by_records && !setSplitByNumberOfLine_ && nb_mapped_readers > 0 && isUncompressed(path_to_dump)) {
+			readMapped(path_to_dump, pageQueue, stats, max_nb_pages_to_extract);
+			return;
+		}
+		InputStream in = getDumpInputStream(path_to_dump);
+		try {
+			PageBatch.Batcher batcher = new PageBatch.Batcher(pageQueue, batch_size);
+			StreamPageReader reader = new StreamPageReader(in, batcher, stats, max_nb_pages_to_extract);
+			if (split_by_records)
+				reader.readRecords();
+			else if (setSplitByNumberOfLine_)
+				reader.readLines(nb_lines_per_page);
+			else
+				reader.readDelimitedPages(delimiter_start_bytes, delimiter_end_bytes, page_filter);
+			batcher.flush();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * split an uncompressed dump with nb_mapped_readers MappedPageReader
+	 * working in parallel on distinct parts of the file, and wait for them.
+	 */
+	void readMapped(String path_to_dump, BlockingQueue<PageBatch> pageQueue, DumpParserStats stats, long max_nb_pages_to_extract)
+			throws IOException, InterruptedException {
+		RandomAccessFile raf = new RandomAccessFile(path_to_dump, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long[] boundaries = MappedPageReader.splitAtPages(channel, delimiter_start, nb_mapped_readers);
+			ExecutorService readers = Executors.newFixedThreadPool(nb_mapped_readers);
+			for (int k = 0; k < nb_mapped_readers; k++) {
+				readers.execute(new MappedPageReader(channel, boundaries[k], boundaries[k + 1], delimiter_start, delimiter_end,
+						page_filter, new PageBatch.Batcher(pageQueue, batch_size), stats, max_nb_pages_to_extract));
+			}
+			readers.shutdown();
+			readers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/** true if the file is neither gzipped nor bzipped */
+	static boolean isUncompressed(String file) throws IOException {
+		FileInputStream fin = new FileInputStream(file);
+		try {
+			byte[] header = new byte[3];
+			int nb_read = fin.read(header);
+			if (nb_read >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b)
+				return false;
+			if (nb_read == 3 && header[0] == 'B' && header[1] == 'Z' && header[2] == 'h')
+				return false;
+			return true;
+		} finally {
+			fin.close();
+		}
+	}
+
+	/** tells each of the nb_workers workers that the reader(s) are done */
+	static <T> void signalEndOfStream(BlockingQueue<T> queue, T end_of_stream, int nb_workers) {
+		try {
+			for (int i = 0; i < nb_workers; i++)
+				queue.put(end_of_stream);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** empty a queue until END_OF_STREAM is found, dropping its content */
+	static void drainUntilEndOfStream(BlockingQueue<String> queue) {
+		try {
+			while (queue.take() != END_OF_STREAM)
+				;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 }
@@ -0,0 +1,201 @@
+package com.diffbot.wikistatsextractor.dumpparser;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The counters of one extraction of a DumpParser. The readers, the workers and
+ * the writer update them, and they can be read at any time: through JMX
+ * (registered as com.diffbot.wikistatsextractor:type=DumpParser,id=N while the
+ * extraction runs), or in the line printed every few seconds by log().
+ *
+ * Comparing them tells what a run is waiting for: the readers (empty page
+ * queue, idle workers), the workers (full page queue), or the writer (full
+ * output queue).
+ *
+ * @author sam
+ *
+ */
+public class DumpParserStats implements DumpParserStatsMBean {
+	private static final AtomicInteger nb_instances = new AtomicInteger();
+
+	final AtomicLong bytes_read = new AtomicLong();
+	final AtomicLong pages_read = new AtomicLong();
+	final AtomicLong read_wait_nanos = new AtomicLong();
+	final AtomicLong bytes_written = new AtomicLong();
+
+	private final long start = System.nanoTime();
+	private final BlockingQueue<?> page_queue;
+	private final BlockingQueue<?> output_queue;
+	private final List<DumpParser.Worker> workers;
+	private ObjectName name = null;
+
+	/** values at the last call to log(), to print the rates of the last period */
+	private long last_log = start;
+	private long last_bytes_read, last_pages_read, last_bytes_written, last_busy_nanos;
+
+	DumpParserStats(BlockingQueue<?> page_queue, BlockingQueue<?> output_queue, List<DumpParser.Worker> workers) {
+		this.page_queue = page_queue;
+		this.output_queue = output_queue;
+		this.workers = workers;
+	}
+
+	/** publish the counters through JMX */
+	void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName("com.diffbot.wikistatsextractor:type=DumpParser,id=" + nb_instances.incrementAndGet());
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			e.printStackTrace();
+			name = null;
+		}
+	}
+
+	void unregister() {
+		if (name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		name = null;
+	}
+
+	/**
+	 * print the counters, and the rates since the previous call, on one line
+	 * of key=value
+	 */
+	synchronized void log() {
+		long now = System.nanoTime();
+		double period = Math.max(1, now - last_log) / 1e9;
+		long bytes_read_now = bytes_read.get();
+		long pages_read_now = pages_read.get();
+		long bytes_written_now = bytes_written.get();
+		long busy_nanos = 0;
+		for (DumpParser.Worker w : workers)
+			busy_nanos += w.busy_nanos;
+
+		StringBuilder sb = new StringBuilder("\ndumpparser_stats");
+		sb.append(" elapsed_s=").append((now - start) / 1000000000L);
+		sb.append(" bytes_read=").append(bytes_read_now);
+		sb.append(" read_mb_per_s=").append(String.format("%.1f", (bytes_read_now - last_bytes_read) / period / (1024 * 1024)));
+		sb.append(" pages_read=").append(pages_read_now);
+		sb.append(" pages_per_s=").append((long) ((pages_read_now - last_pages_read) / period));
+		sb.append(" read_wait_ms=").append(read_wait_nanos.get() / 1000000L);
+		sb.append(" page_queue=").append(getPageQueueSize()).append('/').append(getPageQueueCapacity());
+		sb.append(" output_queue=").append(getOutputQueueSize()).append('/').append(getOutputQueueCapacity());
+		sb.append(" workers_busy_pct=").append(
+				workers.isEmpty() ? 0 : (long) (100 * (busy_nanos - last_busy_nanos) / 1e9 / period / workers.size()));
+		sb.append(" bytes_written=").append(bytes_written_now);
+		sb.append(" write_mb_per_s=").append(String.format("%.1f", (bytes_written_now - last_bytes_written) / period / (1024 * 1024)));
+		System.out.println(sb.toString());
+
+		last_log = now;
+		last_bytes_read = bytes_read_now;
+		last_pages_read = pages_read_now;
+		last_bytes_written = bytes_written_now;
+		last_busy_nanos = busy_nanos;
+	}
+
+	public long getElapsedTimeMs() {
+		return (System.nanoTime() - start) / 1000000L;
+	}
+
+	public long getBytesRead() {
+		return bytes_read.get();
+	}
+
+	public long getBytesReadPerSecond() {
+		return perSecond(bytes_read.get());
+	}
+
+	public long getPagesRead() {
+		return pages_read.get();
+	}
+
+	public long getPagesReadPerSecond() {
+		return perSecond(pages_read.get());
+	}
+
+	public long getReadWaitTimeMs() {
+		return read_wait_nanos.get() / 1000000L;
+	}
+
+	public int getPageQueueSize() {
+		return page_queue.size();
+	}
+
+	public int getPageQueueCapacity() {
+		return page_queue.size() + page_queue.remainingCapacity();
+	}
+
+	public int getOutputQueueSize() {
+		return output_queue.size();
+	}
+
+	public int getOutputQueueCapacity() {
+		return output_queue.size() + output_queue.remainingCapacity();
+	}
+
+	public long[] getWorkersBusyTimeMs() {
+		long[] times = new long[workers.size()];
+		for (int i = 0; i < times.length; i++)
+			times[i] = workers.get(i).busy_nanos / 1000000L;
+		return times;
+	}
+
+	public long[] getWorkersIdleTimeMs() {
+		long[] times = new long[workers.size()];
+		for (int i = 0; i < times.length; i++)
+			times[i] = workers.get(i).idle_nanos / 1000000L;
+		return times;
+	}
+
+	public long getBytesWritten() {
+		return bytes_written.get();
+	}
+
+	public long getBytesWrittenPerSecond() {
+		return perSecond(bytes_written.get());
+	}
+
+	private long perSecond(long value) {
+		long elapsed = System.nanoTime() - start;
+		return elapsed <= 0 ? 0 : (long) (value * 1e9 / elapsed);
+	}
+
+	/** counts the bytes going to the output file */
+	static class CountingOutputStream extends FilterOutputStream {
+		private final AtomicLong counter;
+
+		CountingOutputStream(OutputStream out, AtomicLong counter) {
+			super(out);
+			this.counter = counter;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			counter.incrementAndGet();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			counter.addAndGet(len);
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.diffbot.wikistatsextractor.dumpparser;
+
+/**
+ * What a running DumpParser publishes through JMX (see DumpParserStats). The
+ * rates are averages since the beginning of the extraction.
+ *
+ * @author sam
+ *
+ */
+public interface DumpParserStatsMBean {
+
+	public long getElapsedTimeMs();
+
+	/** bytes of the (decompressed) dump read by the readers */
+	public long getBytesRead();
+
+	public long getBytesReadPerSecond();
+
+	/** pages found by the readers, the filtered ones included (lines when split by lines) */
+	public long getPagesRead();
+
+	public long getPagesReadPerSecond();
+
+	/**
+	 * time the readers spent blocked reading the (decompressed) stream, summed
+	 * over the readers. It is the decompression time when it is done on the
+	 * reader thread, only the time left to wait when it is done in advance.
+	 */
+	public long getReadWaitTimeMs();
+
+	/** batches of pages waiting for a worker */
+	public int getPageQueueSize();
+
+	public int getPageQueueCapacity();
+
+	/** Strings waiting for the writer */
+	public int getOutputQueueSize();
+
+	public int getOutputQueueCapacity();
+
+	/** time each worker spent on its pages */
+	public long[] getWorkersBusyTimeMs();
+
+	/** time each worker spent waiting for pages */
+	public long[] getWorkersIdleTimeMs();
+
+	/** bytes written in the output */
+	public long getBytesWritten();
+
+	public long getBytesWrittenPerSecond();
+
+}
@@ -17,6 +17,20 @@ public class DumpParserTutorial {
 		}
 	}
 	
+	/** Another worker, that never decodes the pages: it counts the number
+	 *  of lines of each page directly on the UTF-8 bytes */
+	public static class LineCounterWorker extends DumpParser.ByteWorker {
+		@Override
+		public void doSomethingWithPage(Page page) {
+			int nb_lines=0;
+			for (int i=0; i<page.length(); i++){
+				if (page.byteAt(i)=='\n')
+					nb_lines++;
+			}
+			writeInOutput(nb_lines+"\n");
+		}
+	}
+	
 	/** main method, take as input "bigfile.txt", suppose it is segmented in pages
 	 *  delimited by "<page>" and "</page>", and write the first line of each page in the output */
 	public static void main(String[] args){
@@ -29,6 +43,10 @@ public class DumpParserTutorial {
 		// dp.setSplitByNumberOfLine(true);
 		// dp.setNumberOfLinePerPage(500);
 		
+		/** the pages are given to the workers by batches of about 256KB. A worker can
+		 *  process a whole batch at once by overriding doSomethingWithBatch */
+		// dp.setBatchSize(64 * 1024);
+		
 		/** add the workers */
 		for (int i=0; i<6; i++){
 			dp.addWorker(new TestWorker());
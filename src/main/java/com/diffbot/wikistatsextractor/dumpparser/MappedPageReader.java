@@ -0,0 +1,185 @@
+package com.diffbot.wikistatsextractor.dumpparser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the pages of an uncompressed dump whose start delimiter is in
+ * [range_start, range_end[, scanning the bytes of the file through memory
+ * mapped windows. Several of those readers, on distinct ranges, can split the
+ * same file in parallel.
+ *
+ * A page is what StreamPageReader would give: the lines
+ * strictly between the line containing the start delimiter and the line
+ * containing the end delimiter, with "\r\n" turned to "\n".
+ *
+ * A window is only referenced by the reader until it moves to the next one,
+ * and by the pages that are not processed yet. It is unmapped once it is
+ * garbage collected.
+ *
+ * @author sam
+ *
+ */
+class MappedPageReader implements Runnable {
+	/** size of a mapped window. It is moved (or grown) when a page crosses its end */
+	static int WINDOW_SIZE = 256 * 1024 * 1024;
+
+	private static final byte[] delimiter_newline = { '\n' };
+
+	private final FileChannel channel;
+	private final long file_length;
+	private final long range_start, range_end;
+	private final byte[] delimiter_start, delimiter_end;
+	/** null if every page is accepted */
+	private final PageFilter page_filter;
+	private final PageBatch.Batcher batcher;
+	/** shared by all the readers of a DumpParser (stats.pages_read) */
+	private final AtomicLong counter_pages;
+	private final DumpParserStats stats;
+	private final long max_nb_pages;
+
+	private MappedByteBuffer window = null;
+	private long window_start = 0;
+	private int window_length = 0;
+
+	MappedPageReader(FileChannel channel, long range_start, long range_end, String delimiter_start, String delimiter_end,
+			PageFilter page_filter, PageBatch.Batcher batcher, DumpParserStats stats, long max_nb_pages) throws IOException {
+		this.channel = channel;
+		this.file_length = channel.size();
+		this.range_start = range_start;
+		this.range_end = range_end;
+		this.delimiter_start = delimiter_start.getBytes(Page.UTF8);
+		this.delimiter_end = delimiter_end.getBytes(Page.UTF8);
+		this.page_filter = page_filter;
+		this.batcher = batcher;
+		this.stats = stats;
+		this.counter_pages = stats == null ? null : stats.pages_read;
+		this.max_nb_pages = max_nb_pages;
+	}
+
+	/**
+	 * cut the file in nb_ranges ranges of about the same size, each one
+	 * starting with a start delimiter. Returns the nb_ranges+1 boundaries.
+	 */
+	static long[] splitAtPages(FileChannel channel, String delimiter_start, int nb_ranges) throws IOException {
+		long file_length = channel.size();
+		MappedPageReader scanner = new MappedPageReader(channel, 0, file_length, delimiter_start, delimiter_start, null, null, null, 0);
+		long[] boundaries = new long[nb_ranges + 1];
+		boundaries[nb_ranges] = file_length;
+		for (int k = 1; k < nb_ranges; k++) {
+			long from = Math.max(boundaries[k - 1], file_length / nb_ranges * k);
+			long next_page = scanner.indexOf(scanner.delimiter_start, from, file_length);
+			boundaries[k] = next_page == -1 ? file_length : next_page;
+		}
+		return boundaries;
+	}
+
+	public void run() {
+		try {
+			readRange();
+			batcher.flush();
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			window = null;
+		}
+	}
+
+	private void readRange() throws IOException, InterruptedException {
+		long position = range_start;
+		while (position < range_end) {
+			long start = indexOf(delimiter_start, position, range_end);
+			if (start == -1) {
+				stats.bytes_read.addAndGet(range_end - position);
+				return;
+			}
+			long end = indexOf(delimiter_end, start + delimiter_start.length, file_length);
+			if (end == -1)
+				return;
+			ensureMapped(start, (int) (end - start));
+			if (page_filter != null) {
+				/** the header stops at the <text> tag, or with the page */
+				long header_end = indexOf(PageFilter.TEXT_TAG, start, end);
+				if (header_end == -1)
+					header_end = end;
+				if (!page_filter.accept(window, (int) (start + delimiter_start.length - window_start), (int) (header_end - window_start))) {
+					stats.bytes_read.addAndGet(end + delimiter_end.length - position);
+					if (counter_pages.incrementAndGet() > max_nb_pages)
+						return;
+					position = end + delimiter_end.length;
+					continue;
+				}
+			}
+
+			/** the page starts on the line after the start delimiter */
+			long end_of_line = indexOf(delimiter_newline, start + delimiter_start.length, end);
+			long body_start = end_of_line == -1 ? end : end_of_line + 1;
+
+			/** and ends with the last line before the end delimiter */
+			long body_end = end;
+			while (body_end > body_start && window.get((int) (body_end - 1 - window_start)) != '\n')
+				body_end--;
+
+			batcher.add(slice(body_start, (int) (body_end - body_start)));
+			stats.bytes_read.addAndGet(end + delimiter_end.length - position);
+			long nb_pages = counter_pages.incrementAndGet();
+			if (nb_pages % 100000 == 0)
+				System.out.print("\rParsed " + nb_pages + " pages");
+			if (nb_pages > max_nb_pages)
+				return;
+			position = end + delimiter_end.length;
+		}
+	}
+
+	/**
+	 * the page, without copying it unless it has a '\r'. The bytes have to be
+	 * in the current window, which stays mapped as long as the page is
+	 * referenced.
+	 */
+	private Page slice(long start, int length) {
+		ByteBuffer bytes = window.duplicate();
+		bytes.position((int) (start - window_start));
+		bytes.limit(bytes.position() + length);
+		return Page.withUnixLineEnds(bytes.slice());
+	}
+
+	/** make sure that [position, position+length[ is in the current window */
+	private void ensureMapped(long position, int length) throws IOException {
+		if (window != null && position >= window_start && position + length <= window_start + window_length)
+			return;
+		/** map() collects the garbage when it runs out of address space: the old window can go */
+		window = null;
+		window_start = position;
+		window_length = (int) Math.min(Math.max(WINDOW_SIZE, length), file_length - position);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, window_start, window_length);
+	}
+
+	/** offset of the first occurrence of pattern starting in [from, limit[, -1 if none */
+	long indexOf(byte[] pattern, long from, long limit) throws IOException {
+		long position = from;
+		byte first = pattern[0];
+		while (position < limit && position + pattern.length <= file_length) {
+			ensureMapped(position, pattern.length);
+			int i = (int) (position - window_start);
+			int last = (int) Math.min(limit - window_start, window_length - pattern.length + 1);
+			for (; i < last; i++) {
+				if (window.get(i) != first)
+					continue;
+				int k = 1;
+				while (k < pattern.length && window.get(i + k) == pattern[k])
+					k++;
+				if (k == pattern.length)
+					return window_start + i;
+			}
+			// the next window starts where we stopped
+			position = window_start + last;
+		}
+		return -1;
+	}
+
+}
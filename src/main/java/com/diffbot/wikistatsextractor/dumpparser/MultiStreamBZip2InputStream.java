@@ -0,0 +1,319 @@
+package com.diffbot.wikistatsextractor.dumpparser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Decompress a multistream bzip2 file (like the
+ * pages-articles-multistream.xml.bz2 dumps of wikipedia) on several threads.
+ *
+ * Such a file is just a concatenation of independent bzip2 streams (100 pages
+ * each for wikipedia). We cut the file at stream boundaries into chunks of at
+ * least MIN_CHUNK_SIZE compressed bytes, decompress a few chunks in advance on
+ * a thread pool, and give back the decompressed bytes in the original order.
+ *
+ * The stream boundaries come from the companion index file when we find it
+ * (X-multistream-index.txt or X-multistream-index.txt.bz2, with lines
+ * "offset:page_id:title"), otherwise we scan the file for a stream header
+ * ("BZh" + block size) immediately followed by the block magic.
+ *
+ * @author sam
+ *
+ */
+public class MultiStreamBZip2InputStream extends InputStream {
+	/** minimum size of compressed data given to a decompressing thread */
+	public static int MIN_CHUNK_SIZE = 1024 * 1024;
+	/**
+	 * maximum size of compressed data decompressed at once: the chunk and its
+	 * decompressed bytes are each held in a byte[]
+	 */
+	public static int MAX_CHUNK_SIZE = 256 * 1024 * 1024;
+
+	/** if we do not find a second stream in the first 64MB, it is not a multistream file */
+	static final long MAX_FIRST_STREAM_SIZE = 64L * 1024 * 1024;
+
+	/** the first bytes of a block, 0x314159265359 (pi) */
+	private static final byte[] BLOCK_MAGIC = { 0x31, 0x41, 0x59, 0x26, 0x53, 0x59 };
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final long file_length;
+
+	/** sorted stream offsets read from the index, null if we scan the file */
+	private final long[] index_offsets;
+	private int index_position = 0;
+
+	private final ExecutorService decompressors;
+	/** chunks being decompressed, in the order of the file */
+	private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+	private final int max_pending;
+	/** where the next chunk to submit starts */
+	private long next_chunk_start = 0;
+
+	private byte[] current = new byte[0];
+	private int current_position = 0;
+
+	public MultiStreamBZip2InputStream(String path, int nb_threads) throws IOException {
+		raf = new RandomAccessFile(path, "r");
+		channel = raf.getChannel();
+		file_length = channel.size();
+		long[] offsets = null;
+		String path_to_index = findIndexFile(path);
+		if (path_to_index != null) {
+			long start = System.currentTimeMillis();
+			offsets = readIndex(path_to_index);
+			System.out.println("read " + offsets.length + " stream offsets from " + path_to_index + " in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		}
+		index_offsets = offsets;
+		max_pending = 2 * nb_threads;
+		/** daemon threads, so that a stream that is never closed does not keep the JVM alive */
+		decompressors = Executors.newFixedThreadPool(nb_threads, new ThreadFactory() {
+			private final ThreadFactory default_factory = Executors.defaultThreadFactory();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = default_factory.newThread(r);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * quickly checks that the file is a bzip2 file containing several
+	 * streams, with a second one starting close enough to the beginning
+	 */
+	public static boolean isMultiStream(String path) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(path, "r");
+			byte[] header = new byte[4];
+			if (raf.length() < 14 || raf.read(header) != 4 || !isStreamHeader(header, 0))
+				return false;
+			if (findIndexFile(path) != null)
+				return true;
+			long second_stream = findNextStreamStart(raf.getChannel(), 1, Math.min(raf.length(), MAX_FIRST_STREAM_SIZE));
+			return second_stream != -1;
+		} catch (IOException ioe) {
+			return false;
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * "enwiki-latest-pages-articles-multistream.xml.bz2" has its index in
+	 * "enwiki-latest-pages-articles-multistream-index.txt(.bz2)"
+	 */
+	static String findIndexFile(String path) {
+		String base = path;
+		if (base.endsWith(".bz2"))
+			base = base.substring(0, base.length() - 4);
+		if (base.endsWith(".xml"))
+			base = base.substring(0, base.length() - 4);
+		for (String candidate : new String[] { base + "-index.txt", base + "-index.txt.bz2" }) {
+			File f = new File(candidate);
+			if (f.exists() && !f.isDirectory())
+				return candidate;
+		}
+		return null;
+	}
+
+	/** read the distinct offsets of the index, lines are "offset:page_id:title" */
+	static long[] readIndex(String path_to_index) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(path_to_index), 64 * 1024);
+		if (path_to_index.endsWith(".bz2"))
+			in = new BZip2CompressorInputStream(in, true);
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"), 64 * 1024);
+		long[] offsets = new long[1024];
+		int nb_offsets = 0;
+		long last = -1;
+		try {
+			String line = br.readLine();
+			while (line != null) {
+				int index_colon = line.indexOf(':');
+				if (index_colon > 0) {
+					long offset = Long.parseLong(line.substring(0, index_colon));
+					if (offset != last) {
+						if (nb_offsets == offsets.length)
+							offsets = Arrays.copyOf(offsets, nb_offsets * 2);
+						offsets[nb_offsets++] = offset;
+						last = offset;
+					}
+				}
+				line = br.readLine();
+			}
+		} finally {
+			br.close();
+		}
+		offsets = Arrays.copyOf(offsets, nb_offsets);
+		Arrays.sort(offsets);
+		return offsets;
+	}
+
+	private static boolean isStreamHeader(byte[] b, int i) {
+		return b[i] == 'B' && b[i + 1] == 'Z' && b[i + 2] == 'h' && b[i + 3] >= '1' && b[i + 3] <= '9';
+	}
+
+	/**
+	 * look for the beginning of a stream in [from, to[. Return its offset, or
+	 * -1 if there is none.
+	 */
+	static long findNextStreamStart(FileChannel channel, long from, long to) throws IOException {
+		int magic_length = 4 + BLOCK_MAGIC.length;
+		byte[] buffer = new byte[1024 * 1024];
+		ByteBuffer bb = ByteBuffer.wrap(buffer);
+		long position = from;
+		while (position < to) {
+			bb.clear();
+			int nb_read = channel.read(bb, position);
+			if (nb_read < magic_length)
+				return -1;
+			int last_candidate = (int) Math.min(nb_read - magic_length, to - position - 1);
+			for (int i = 0; i <= last_candidate; i++) {
+				if (buffer[i] != 'B' || !isStreamHeader(buffer, i))
+					continue;
+				boolean match = true;
+				for (int k = 0; k < BLOCK_MAGIC.length; k++) {
+					if (buffer[i + 4 + k] != BLOCK_MAGIC[k]) {
+						match = false;
+						break;
+					}
+				}
+				if (match)
+					return position + i;
+			}
+			// the next read overlaps this one, so that no header is cut in two
+			position += last_candidate + 1;
+		}
+		return -1;
+	}
+
+	/** find where the chunk starting at chunk_start ends */
+	private long nextChunkEnd(long chunk_start) throws IOException {
+		long min_end = chunk_start + MIN_CHUNK_SIZE;
+		if (min_end >= file_length)
+			return file_length;
+		if (index_offsets != null) {
+			while (index_position < index_offsets.length && index_offsets[index_position] < min_end)
+				index_position++;
+			if (index_position == index_offsets.length)
+				return file_length;
+			return index_offsets[index_position];
+		}
+		long next_start = findNextStreamStart(channel, min_end, file_length);
+		if (next_start == -1)
+			return file_length;
+		return next_start;
+	}
+
+	/** submit chunks until we have enough of them being decompressed */
+	private void fillPending() throws IOException {
+		while (pending.size() < max_pending && next_chunk_start < file_length) {
+			final long chunk_start = next_chunk_start;
+			final long chunk_end = nextChunkEnd(chunk_start);
+			if (chunk_end - chunk_start > MAX_CHUNK_SIZE)
+				throw new IOException("no bzip2 stream boundary between " + chunk_start + " and " + chunk_end + " (more than "
+						+ MAX_CHUNK_SIZE + " bytes), the index may be corrupt or incomplete");
+			next_chunk_start = chunk_end;
+			pending.add(decompressors.submit(new Callable<byte[]>() {
+				public byte[] call() throws IOException {
+					return decompress(chunk_start, chunk_end);
+				}
+			}));
+		}
+	}
+
+	/** read [start, end[ and decompress all the streams it contains */
+	private byte[] decompress(long start, long end) throws IOException {
+		byte[] compressed = new byte[(int) (end - start)];
+		ByteBuffer bb = ByteBuffer.wrap(compressed);
+		while (bb.hasRemaining()) {
+			if (channel.read(bb, start + bb.position()) == -1)
+				throw new IOException("unexpected end of file at " + (start + bb.position()));
+		}
+		BZip2CompressorInputStream bzIn = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed), true);
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream(compressed.length * 6);
+		byte[] buffer = new byte[64 * 1024];
+		int nb_read = bzIn.read(buffer);
+		while (nb_read != -1) {
+			decompressed.write(buffer, 0, nb_read);
+			nb_read = bzIn.read(buffer);
+		}
+		bzIn.close();
+		return decompressed.toByteArray();
+	}
+
+	/** make sure current has something to read. Return false at the end of the file */
+	private boolean ensureAvailable() throws IOException {
+		while (current_position >= current.length) {
+			fillPending();
+			if (pending.isEmpty())
+				return false;
+			try {
+				current = pending.poll().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+			current_position = 0;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureAvailable())
+			return -1;
+		return current[current_position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!ensureAvailable())
+			return -1;
+		int nb_read = Math.min(len, current.length - current_position);
+		System.arraycopy(current, current_position, b, off, nb_read);
+		current_position += nb_read;
+		return nb_read;
+	}
+
+	@Override
+	public void close() throws IOException {
+		decompressors.shutdownNow();
+		pending.clear();
+		raf.close();
+	}
+
+}
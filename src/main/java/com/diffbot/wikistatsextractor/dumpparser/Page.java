@@ -0,0 +1,95 @@
+package com.diffbot.wikistatsextractor.dumpparser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A page as the reader gives it to the workers: the raw UTF-8 bytes, as a
+ * slice of a bigger buffer (a chunk of the decompressed stream, or a window of
+ * the memory mapped file). Nothing is copied or decoded by the reader, it is
+ * up to the worker to do it if it needs a String.
+ *
+ * @author sam
+ *
+ */
+public class Page {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** position 0, limit the length of the page. Never modified */
+	private final ByteBuffer bytes;
+
+	public Page(byte[] array, int offset, int length) {
+		this.bytes = ByteBuffer.wrap(array, offset, length).slice();
+	}
+
+	/** the slice is used as is, it must not be modified afterwards */
+	Page(ByteBuffer slice) {
+		this.bytes = slice;
+	}
+
+	/**
+	 * the page of slice, with its line ends turned to '\n' like
+	 * BufferedReader.readLine would: "\r\n" and a lone '\r'. The slice is used
+	 * as is when it has no '\r' (the usual case), and copied otherwise.
+	 */
+	static Page withUnixLineEnds(ByteBuffer slice) {
+		int length = slice.limit();
+		int first = 0;
+		while (first < length && slice.get(first) != '\r')
+			first++;
+		if (first == length)
+			return new Page(slice);
+		byte[] copy = new byte[length];
+		int nb_copied = 0;
+		for (int i = 0; i < length; i++) {
+			byte b = slice.get(i);
+			if (b == '\r') {
+				if (i + 1 < length && slice.get(i + 1) == '\n')
+					continue;
+				b = '\n';
+			}
+			copy[nb_copied++] = b;
+		}
+		return new Page(copy, 0, nb_copied);
+	}
+
+	/** same as above, with a range of an array */
+	static Page withUnixLineEnds(byte[] array, int offset, int length) {
+		return withUnixLineEnds(ByteBuffer.wrap(array, offset, length).slice());
+	}
+
+	/** number of bytes of the page */
+	public int length() {
+		return bytes.limit();
+	}
+
+	public byte byteAt(int i) {
+		return bytes.get(i);
+	}
+
+	/** a read-only view of the bytes, from 0 to length() */
+	public ByteBuffer getBytes() {
+		return bytes.asReadOnlyBuffer();
+	}
+
+	/**
+	 * decode the page. scratch is used as an intermediate buffer if the bytes
+	 * are not on the heap and it is big enough, otherwise a new one is taken.
+	 */
+	public String decode(byte[] scratch) {
+		int length = bytes.limit();
+		if (bytes.hasArray())
+			return new String(bytes.array(), bytes.arrayOffset(), length, UTF8);
+		if (scratch == null || scratch.length < length)
+			scratch = new byte[length];
+		ByteBuffer copy = bytes.duplicate();
+		copy.get(scratch, 0, length);
+		return new String(scratch, 0, length, UTF8);
+	}
+
+	@Override
+	public String toString() {
+		return decode(null);
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.diffbot.wikistatsextractor.dumpparser;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A few consecutive pages, handed to a worker at once. The readers fill a batch
+ * until it holds about batch_size bytes, so a batch is made of hundreds of
+ * redirects, or of a couple of long articles.
+ *
+ * @author sam
+ *
+ */
+public class PageBatch {
+	/** put in the page queue to signal that nothing will follow */
+	static final PageBatch END_OF_STREAM = new PageBatch();
+
+	private Page[] pages = new Page[16];
+	private int size = 0;
+	private long nb_bytes = 0;
+
+	/** number of pages in the batch */
+	public int size() {
+		return size;
+	}
+
+	public Page get(int i) {
+		return pages[i];
+	}
+
+	/** total size of the pages, in bytes */
+	public long getNbBytes() {
+		return nb_bytes;
+	}
+
+	void add(Page page) {
+		if (size == pages.length)
+			pages = Arrays.copyOf(pages, size * 2);
+		pages[size++] = page;
+		nb_bytes += page.length();
+	}
+
+	/**
+	 * Used by a reader to group the pages it finds into batches of at least
+	 * batch_size bytes before putting them into the queue.
+	 */
+	static class Batcher {
+		private final BlockingQueue<PageBatch> pageQueue;
+		private final int batch_size;
+		private PageBatch current = new PageBatch();
+
+		Batcher(BlockingQueue<PageBatch> pageQueue, int batch_size) {
+			this.pageQueue = pageQueue;
+			this.batch_size = batch_size;
+		}
+
+		/** blocks if the batch is complete and the workers are late */
+		void add(Page page) throws InterruptedException {
+			current.add(page);
+			if (current.nb_bytes >= batch_size)
+				flush();
+		}
+
+		/** send the current batch, even if it is not complete */
+		void flush() throws InterruptedException {
+			if (current.size == 0)
+				return;
+			pageQueue.put(current);
+			current = new PageBatch();
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.diffbot.wikistatsextractor.dumpparser;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decides, from the header of a wikipedia page (everything before the
+ * &lt;text&gt; tag), whether the page is given to the workers. It is
+ * evaluated by the readers on the raw bytes, so a rejected page is never
+ * decoded, nor queued.
+ *
+ * By default everything is accepted. You can restrict:
+ * - the namespaces (the content of &lt;ns&gt;, 0 for the articles)
+ * - the content model (the content of &lt;model&gt;, "wikitext" for the articles)
+ * - the redirects (pages with a &lt;redirect title="..."/&gt; tag) or the others
+ *
+ * @author sam
+ *
+ */
+public class PageFilter {
+	private static final byte[] NS_TAG = bytes("<ns>");
+	private static final byte[] MODEL_TAG = bytes("<model>");
+	private static final byte[] REDIRECT_TAG = bytes("<redirect");
+	/** the header of a page stops there */
+	static final byte[] TEXT_TAG = bytes("<text");
+
+	/** sorted accepted namespaces, null if they are all accepted */
+	private int[] namespaces = null;
+	/** accepted model, null if they are all accepted */
+	private byte[] model = null;
+	private boolean accept_redirects = true;
+	private boolean accept_non_redirects = true;
+
+	/** the main articles: namespace 0, wikitext, and no redirect */
+	public static PageFilter articles() {
+		PageFilter filter = new PageFilter();
+		filter.setNamespaces(0);
+		filter.setModel("wikitext");
+		filter.setRedirects(false, true);
+		return filter;
+	}
+
+	public void setNamespaces(int... namespaces) {
+		this.namespaces = Arrays.copyOf(namespaces, namespaces.length);
+		Arrays.sort(this.namespaces);
+	}
+
+	public void setModel(String model) {
+		this.model = model == null ? null : bytes(model);
+	}
+
+	public void setRedirects(boolean accept_redirects, boolean accept_non_redirects) {
+		this.accept_redirects = accept_redirects;
+		this.accept_non_redirects = accept_non_redirects;
+	}
+
+	/**
+	 * true if the page whose header is in [from, to[ is accepted. A page
+	 * without namespace (or without model) is rejected when the namespaces
+	 * (or the model) are restricted.
+	 */
+	public boolean accept(ByteBuffer bytes, int from, int to) {
+		boolean has_ns = false;
+		int ns = 0;
+		boolean is_redirect = false;
+		int model_start = -1;
+		int model_end = -1;
+		for (int i = from; i < to; i++) {
+			if (bytes.get(i) != '<')
+				continue;
+			if (!has_ns && startsWith(bytes, i, to, NS_TAG)) {
+				int j = i + NS_TAG.length;
+				boolean negative = j < to && bytes.get(j) == '-';
+				if (negative)
+					j++;
+				while (j < to && bytes.get(j) >= '0' && bytes.get(j) <= '9') {
+					ns = ns * 10 + bytes.get(j) - '0';
+					j++;
+				}
+				if (negative)
+					ns = -ns;
+				has_ns = true;
+				i = j - 1;
+			} else if (startsWith(bytes, i, to, REDIRECT_TAG)) {
+				is_redirect = true;
+			} else if (model_start == -1 && startsWith(bytes, i, to, MODEL_TAG)) {
+				model_start = i + MODEL_TAG.length;
+				model_end = model_start;
+				while (model_end < to && bytes.get(model_end) != '<')
+					model_end++;
+				i = model_end - 1;
+			}
+		}
+
+		if (is_redirect ? !accept_redirects : !accept_non_redirects)
+			return false;
+		if (namespaces != null && (!has_ns || Arrays.binarySearch(namespaces, ns) < 0))
+			return false;
+		if (model != null) {
+			if (model_start == -1 || model_end - model_start != model.length)
+				return false;
+			for (int k = 0; k < model.length; k++) {
+				if (bytes.get(model_start + k) != model[k])
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/** bytes.get(i) is already known to be '<', like the first char of every tag */
+	private static boolean startsWith(ByteBuffer bytes, int i, int to, byte[] pattern) {
+		if (i + pattern.length > to)
+			return false;
+		for (int k = 1; k < pattern.length; k++) {
+			if (bytes.get(i + k) != pattern[k])
+				return false;
+		}
+		return true;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(Page.UTF8);
+	}
+
+}
@@ -0,0 +1,37 @@
+package com.diffbot.wikistatsextractor.dumpparser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes a file of records: each one is its length (a 4 bytes big endian int)
+ * followed by its bytes. Such a file can be read back by a DumpParser with
+ * setSplitByRecords(true), each record being a page for the workers.
+ *
+ * Several workers can write in the same RecordWriter, a record is never
+ * mixed with another one.
+ *
+ * @author sam
+ *
+ */
+public class RecordWriter {
+	private final DataOutputStream out;
+
+	public RecordWriter(String path) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(path)), 1024 * 1024));
+	}
+
+	/** append the record made of bytes[offset, offset+length[ */
+	public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+		out.writeInt(length);
+		out.write(bytes, offset, length);
+	}
+
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+}
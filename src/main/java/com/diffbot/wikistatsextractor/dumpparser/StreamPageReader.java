@@ -0,0 +1,223 @@
+package com.diffbot.wikistatsextractor.dumpparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Split a (decompressed) byte stream into pages without decoding it. The
+ * stream is read in chunks of CHUNK_SIZE bytes and each page is a slice of a
+ * chunk. A chunk is never reused, since the pages that point to it may still
+ * be waiting in the queue: when a page crosses the end of a chunk, its
+ * beginning is copied at the start of the next one.
+ *
+ * The line ends of the pages are "\n", like the lines of readLine: a page
+ * with a '\r' is copied without it (records are given as they are).
+ *
+ * @author sam
+ *
+ */
+class StreamPageReader {
+	static int CHUNK_SIZE = 1024 * 1024;
+
+	private final InputStream in;
+	private final PageBatch.Batcher batcher;
+	/** shared by all the readers of a DumpParser (stats.pages_read) */
+	private final AtomicLong counter_pages;
+	private final DumpParserStats stats;
+	private final long max_nb_pages;
+
+	private byte[] chunk = new byte[0];
+	/** chunk, for the page filter */
+	private ByteBuffer chunk_buffer = ByteBuffer.wrap(chunk);
+	/** number of valid bytes in chunk */
+	private int chunk_length = 0;
+	private boolean end_of_stream = false;
+
+	StreamPageReader(InputStream in, PageBatch.Batcher batcher, DumpParserStats stats, long max_nb_pages) {
+		this.in = in;
+		this.batcher = batcher;
+		this.stats = stats;
+		this.counter_pages = stats.pages_read;
+		this.max_nb_pages = max_nb_pages;
+	}
+
+	/**
+	 * each page is made of the lines strictly between a line containing
+	 * delimiter_start and the next line containing delimiter_end. If
+	 * page_filter is not null, the pages it rejects are skipped as soon as
+	 * their header is read.
+	 */
+	void readDelimitedPages(byte[] delimiter_start, byte[] delimiter_end, PageFilter page_filter) throws IOException,
+			InterruptedException {
+		int position = 0;
+		while (true) {
+			int start = indexOf(delimiter_start, position, chunk_length);
+			int end = start == -1 ? -1 : indexOf(delimiter_end, start + delimiter_start.length, chunk_length);
+			if (start != -1 && page_filter != null) {
+				/** the header stops at the <text> tag, or with the page */
+				int header_end = indexOf(PageFilter.TEXT_TAG, start, end == -1 ? chunk_length : end);
+				if (header_end == -1)
+					header_end = end;
+				if (header_end != -1 && !page_filter.accept(chunk_buffer, start + delimiter_start.length, header_end)) {
+					/** the rest of the page is useless, we only look for its end */
+					while (end == -1) {
+						int keep_from = Math.max(header_end, chunk_length - delimiter_end.length + 1);
+						if (!refill(keep_from))
+							return;
+						header_end = 0;
+						end = indexOf(delimiter_end, 0, chunk_length);
+					}
+					if (counter_pages.incrementAndGet() > max_nb_pages)
+						return;
+					position = end + delimiter_end.length;
+					continue;
+				}
+			}
+			if (end == -1) {
+				/** keep what may be the beginning of the next page, and read more */
+				int keep_from = start != -1 ? start : Math.max(position, chunk_length - delimiter_start.length + 1);
+				if (!refill(keep_from))
+					return;
+				position = start != -1 ? 0 : position - keep_from;
+				if (position < 0)
+					position = 0;
+				continue;
+			}
+
+			/** the page starts on the line after the start delimiter */
+			int body_start = indexOf(NEWLINE, start + delimiter_start.length, end);
+			body_start = body_start == -1 ? end : body_start + 1;
+			/** and ends with the last line before the end delimiter */
+			int body_end = end;
+			while (body_end > body_start && chunk[body_end - 1] != '\n')
+				body_end--;
+
+			batcher.add(Page.withUnixLineEnds(chunk, body_start, body_end - body_start));
+			long nb_pages = counter_pages.incrementAndGet();
+			if (nb_pages % 100000 == 0)
+				System.out.print("\rParsed " + nb_pages + " pages");
+			if (nb_pages > max_nb_pages)
+				return;
+			position = end + delimiter_end.length;
+		}
+	}
+
+	/** each page is made of nb_lines_per_page lines (the last one may be shorter) */
+	void readLines(int nb_lines_per_page) throws IOException, InterruptedException {
+		int page_start = 0;
+		int position = 0;
+		int nb_lines = 0;
+		while (true) {
+			while (position < chunk_length && nb_lines < nb_lines_per_page) {
+				if (chunk[position] == '\n')
+					nb_lines++;
+				position++;
+			}
+			if (nb_lines < nb_lines_per_page) {
+				int already_scanned = position - page_start;
+				if (!refill(page_start))
+					break;
+				page_start = 0;
+				position = already_scanned;
+				continue;
+			}
+			batcher.add(Page.withUnixLineEnds(chunk, page_start, position - page_start));
+			long nb_read = counter_pages.addAndGet(nb_lines);
+			if (nb_read / 100000 != (nb_read - nb_lines) / 100000)
+				System.out.print("\rParsed " + nb_read + " lines");
+			if (nb_read > max_nb_pages)
+				return;
+			page_start = position;
+			nb_lines = 0;
+		}
+		/** we send the remaining lines to the workers */
+		if (chunk_length > page_start) {
+			batcher.add(Page.withUnixLineEnds(chunk, page_start, chunk_length - page_start));
+			counter_pages.addAndGet(nb_lines);
+		}
+	}
+
+	/**
+	 * each page is a record written by a RecordWriter: a 4 bytes big endian
+	 * length, then the bytes of the page.
+	 */
+	void readRecords() throws IOException, InterruptedException {
+		int position = 0;
+		while (true) {
+			int available = chunk_length - position;
+			if (available < 4 || available - 4 < readInt(position)) {
+				if (!refill(position)) {
+					if (chunk_length > position)
+						System.out.println("the last record is truncated, " + (chunk_length - position) + " bytes ignored");
+					return;
+				}
+				position = 0;
+				continue;
+			}
+			int length = readInt(position);
+			batcher.add(new Page(chunk, position + 4, length));
+			long nb_pages = counter_pages.incrementAndGet();
+			if (nb_pages % 100000 == 0)
+				System.out.print("\rParsed " + nb_pages + " records");
+			if (nb_pages > max_nb_pages)
+				return;
+			position += 4 + length;
+		}
+	}
+
+	private int readInt(int position) {
+		return ((chunk[position] & 0xff) << 24) | ((chunk[position + 1] & 0xff) << 16) | ((chunk[position + 2] & 0xff) << 8)
+				| (chunk[position + 3] & 0xff);
+	}
+
+	private static final byte[] NEWLINE = { '\n' };
+
+	/**
+	 * take a new chunk, starting with the bytes of the current one from
+	 * keep_from, and complete it with the stream. Return false if there was
+	 * nothing more to read.
+	 */
+	private boolean refill(int keep_from) throws IOException {
+		if (end_of_stream)
+			return false;
+		int nb_kept = chunk_length - keep_from;
+		// a page bigger than a chunk doubles it, so that it is not scanned too often
+		byte[] next = new byte[Math.max(CHUNK_SIZE, 2 * nb_kept)];
+		System.arraycopy(chunk, keep_from, next, 0, nb_kept);
+		int length = nb_kept;
+		long read_start = System.nanoTime();
+		while (length < next.length) {
+			int nb_read = in.read(next, length, next.length - length);
+			if (nb_read == -1) {
+				end_of_stream = true;
+				break;
+			}
+			length += nb_read;
+		}
+		stats.read_wait_nanos.addAndGet(System.nanoTime() - read_start);
+		stats.bytes_read.addAndGet(length - nb_kept);
+		chunk = next;
+		chunk_buffer = ByteBuffer.wrap(chunk);
+		chunk_length = length;
+		return length > nb_kept;
+	}
+
+	/** index of the first occurrence of pattern starting in [from, to - pattern.length], -1 if none */
+	private int indexOf(byte[] pattern, int from, int to) {
+		byte first = pattern[0];
+		int last = to - pattern.length;
+		for (int i = from; i <= last; i++) {
+			if (chunk[i] != first)
+				continue;
+			int k = 1;
+			while (k < pattern.length && chunk[i + k] == pattern[k])
+				k++;
+			if (k == pattern.length)
+				return i;
+		}
+		return -1;
+	}
+
+}
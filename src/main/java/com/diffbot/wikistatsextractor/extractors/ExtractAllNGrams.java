@@ -9,13 +9,20 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 
 import com.diffbot.wikistatsextractor.dumpparser.DumpParser;
+import com.diffbot.wikistatsextractor.dumpparser.Page;
+import com.diffbot.wikistatsextractor.dumpparser.PageFilter;
+import com.diffbot.wikistatsextractor.util.PageHeader;
+import com.diffbot.wikistatsextractor.util.ParagraphBuffer;
+import com.diffbot.wikistatsextractor.util.StoredPage;
+import com.diffbot.wikistatsextractor.util.SurfaceFormAutomaton;
+import com.diffbot.wikistatsextractor.util.SurfaceFormDictionary;
 import com.diffbot.wikistatsextractor.util.Tokenizer;
 import com.diffbot.wikistatsextractor.util.Util;
+import com.diffbot.wikistatsextractor.util.WikiTextCleaner;
 
 /**
  * Another important part of spotlight, produce a file, 
@@ -28,59 +35,159 @@ import com.diffbot.wikistatsextractor.util.Util;
 public class ExtractAllNGrams {
 	/** max nb token that a surface form can have */
 	public static int MAX_NB_TOKEN = 4;
+	/**
+	 * if true, the surface forms are found by an Aho-Corasick automaton, in one
+	 * scan of each paragraph whatever MAX_NB_TOKEN, instead of looking up
+	 * every n-gram of up to MAX_NB_TOKEN tokens. It needs more memory.
+	 */
+	public static boolean USE_AUTOMATON = false;
 	/** local default language */
 	public static String LOCALE="en_US";
 	/** local language */
 	public static String LANGUAGE="en";
 
 	public static class AllNGramsWorker extends DumpParser.Worker {
-		ConcurrentHashMap<String, Integer> all_interesting_sf;
+		/** surface form -> its index in counts. Shared, and only read */
+		SurfaceFormDictionary all_interesting_sf;
+		/** the automaton of all_interesting_sf if USE_AUTOMATON, null otherwise */
+		SurfaceFormAutomaton automaton;
+		/**
+		 * the index of the token that starts/ends at each offset of the
+		 * paragraph, -1 if none does. Only for the automaton
+		 */
+		int[] token_starts = new int[0];
+		int[] token_ends = new int[0];
+		/** the number of times each surface form is seen by this worker */
+		int[] counts;
+		/** finds the tokens of each paragraph, reused from one to the next */
+		Tokenizer tokenizer = new Tokenizer(LANGUAGE);
+		PageHeader header = new PageHeader();
+		WikiTextCleaner cleaner = new WikiTextCleaner(true, true, false, true);
+		/** the paragraphs of the current page, reused from one page to the next */
+		ParagraphBuffer paragraphs = new ParagraphBuffer();
+		StoredPage stored_page = new StoredPage();
+		/** true if the pages are records of the paragraph store (see StoredPage) */
+		boolean from_paragraph_store = false;
 
-		public AllNGramsWorker(ConcurrentHashMap<String, Integer> all_interesting_sf) {
+		public AllNGramsWorker(SurfaceFormDictionary all_interesting_sf, SurfaceFormAutomaton automaton) {
 			this.all_interesting_sf = all_interesting_sf;
+			this.automaton = automaton;
+			this.counts = new int[all_interesting_sf.size()];
+			/** only the text matters here */
+			cleaner.setAnnotateLinks(false);
+		}
+
+		@Override
+		public void doSomethingWithPage(Page page) {
+			if (!from_paragraph_store) {
+				super.doSomethingWithPage(page);
+				return;
+			}
+			/** the paragraphs are already clean, links included */
+			countNGrams(stored_page.readFrom(page.getBytes()).paragraphs);
 		}
 
 		@Override
 		public void doSomethingWithPage(String page) {
-			List<String> paragraphs = Util.getCleanTextFromPage(page, true, true, true,true);
+			if (cleaner.clean(header.scan(page), paragraphs))
+				countNGrams(paragraphs);
+		}
 
-			if (paragraphs == null)
+		void countNGrams(ParagraphBuffer paragraphs) {
+			for (int p = 0; p < paragraphs.size(); p++)
+				countNGrams(paragraphs.getText(), paragraphs.getStart(p), paragraphs.getEnd(p));
+		}
+
+		/** count the interesting surface forms that appear in the paragraph text[start, end[ */
+		void countNGrams(CharSequence text, int start, int end) {
+			int nb_tokens = tokenizer.tokenize(text, start, end);
+			if (automaton != null) {
+				countMatches(text, start, end);
 				return;
+			}
+			for (int i = 0; i < nb_tokens; i++) {
+				int sf_start = tokenizer.getStart(i);
+				for (int j = 0; j < MAX_NB_TOKEN && i + j < nb_tokens; j++) {
+					int sf_end = tokenizer.getEnd(i + j);
+					int id = all_interesting_sf.lookup(text, sf_start, sf_end);
+					if (id != -1)
+						counts[id]++;
 
-			for (String paragraph : paragraphs) {
-				ArrayList<Integer> delimiters = Tokenizer.getDelimiters2(paragraph, LANGUAGE);
-				for (int i = 0; i < delimiters.size(); i += 2) {
-					for (int j = 0; j < MAX_NB_TOKEN; j++) {
-						if (i < delimiters.size() - j * 2 - 1) {
-							String substr = paragraph.substring(delimiters.get(i), delimiters.get(i + 1 + 2 * j));
-							Integer count=all_interesting_sf.get(substr);
-							if (count!=null) {
-									all_interesting_sf.put(substr, 1 + count);
-							}
-							
-							// special case of the dot (Apple Inc.), if the next char is a dot, we also check it
-							if (delimiters.get(i + 1 + 2 * j)<paragraph.length() && paragraph.charAt(delimiters.get(i + 1 + 2 * j))=='.'){
-								substr = paragraph.substring(delimiters.get(i), delimiters.get(i + 1 + 2 * j)+1);
-								count=all_interesting_sf.get(substr);
-								if (count!=null) {
-										all_interesting_sf.put(substr, 1 + count);
-								}
-							}
-						}
+					// special case of the dot (Apple Inc.), if the next char is a dot, we also check it
+					if (sf_end < end && text.charAt(sf_end) == '.') {
+						id = all_interesting_sf.lookup(text, sf_start, sf_end + 1);
+						if (id != -1)
+							counts[id]++;
 					}
 				}
 			}
+		}
 
+		/**
+		 * same as above, with the automaton, once the tokenizer has the tokens
+		 * of the paragraph: a match is counted if it starts at the start of a
+		 * token, ends at the end of one (or at a dot just after it), and spans
+		 * at most MAX_NB_TOKEN tokens. These are exactly the n-grams looked up
+		 * above.
+		 */
+		void countMatches(CharSequence text, int start, int end) {
+			int length = end - start;
+			int nb_tokens = tokenizer.getNbTokens();
+			if (token_starts.length < length + 1) {
+				token_starts = new int[2 * length + 1];
+				token_ends = new int[2 * length + 1];
+				Arrays.fill(token_starts, -1);
+				Arrays.fill(token_ends, -1);
+			}
+			/** offsets in the paragraph */
+			for (int t = 0; t < nb_tokens; t++) {
+				token_starts[tokenizer.getStart(t) - start] = t;
+				token_ends[tokenizer.getEnd(t) - start] = t;
+			}
+
+			int state = SurfaceFormAutomaton.ROOT;
+			for (int i = 0; i < length; i++) {
+				char c = text.charAt(start + i);
+				state = automaton.next(state, c);
+				int match_end = i + 1;
+				int last_token = token_ends[match_end];
+				// special case of the dot (Apple Inc.)
+				if (last_token == -1 && c == '.')
+					last_token = token_ends[i];
+				if (last_token == -1)
+					continue;
+				for (int match = automaton.firstMatch(state); match != -1; match = automaton.nextMatch(match)) {
+					int id = automaton.getId(match);
+					int first_token = token_starts[match_end - all_interesting_sf.length(id)];
+					if (first_token != -1 && first_token <= last_token && last_token - first_token < MAX_NB_TOKEN)
+						counts[id]++;
+				}
+			}
+
+			/** only what was set, for the next paragraph */
+			for (int t = 0; t < nb_tokens; t++) {
+				token_starts[tokenizer.getStart(t) - start] = -1;
+				token_ends[tokenizer.getEnd(t) - start] = -1;
+			}
 		}
 	}
 
 	public static void extractAllNGrams(String path_to_wiki_dump, String path_to_surface_form_file, String path_to_output) {
-		/** get all the surface forms */
-		ConcurrentHashMap<String, Integer> surface_forms=null;
+		extractAllNGrams(path_to_wiki_dump, false, path_to_surface_form_file, path_to_output);
+	}
+
+	/**
+	 * same as above. If is_paragraph_store, path_to_input is the paragraph
+	 * store written by the first pass instead of the dump.
+	 */
+	public static void extractAllNGrams(String path_to_input, boolean is_paragraph_store, String path_to_surface_form_file,
+			String path_to_output) {
+		/** get all the surface forms, and give each one an index in the counts of the workers */
+		SurfaceFormDictionary surface_forms=null;
 		/** also keep in mind the surface forms that are all in lower case, for later */
 		HashSet<String> lowercase_surface_forms=new HashSet<String>();
 		try {
-			surface_forms = new ConcurrentHashMap<String, Integer>(5000000,0.5f,7);
+			SurfaceFormDictionary.Builder builder = new SurfaceFormDictionary.Builder(5000000);
 			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(new File(path_to_surface_form_file)), "UTF8"), 16 * 1024);
 			String line = br.readLine();
 			while (line != null) {
@@ -91,26 +198,42 @@ public class ExtractAllNGrams {
 				}
 				String sf = split[0];
 				String lower_case = sf.toLowerCase();
-				surface_forms.put(sf, 0);
-				if (!sf.equals(lower_case))
-					surface_forms.put(sf, 0);
-				else
+				builder.add(sf);
+				if (sf.equals(lower_case))
 					lowercase_surface_forms.add(sf);
 				line=br.readLine();
 			}
 			br.close();
+			surface_forms = builder.build();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		
 		
 		System.out.println(surface_forms.size() + " elements in the interesting sf");
+		SurfaceFormAutomaton automaton = USE_AUTOMATON ? new SurfaceFormAutomaton(surface_forms) : null;
 
 		/** launch the dump Parsing */
 		DumpParser dp = new DumpParser();
-		for (int i = 0; i < 7; i++)
-			dp.addWorker(new AllNGramsWorker(surface_forms));
-		dp.extract(path_to_wiki_dump);
+		/** only the articles are worth it, the reader skips the rest */
+		dp.setPageFilter(PageFilter.articles());
+		dp.setSplitByRecords(is_paragraph_store);
+		ArrayList<AllNGramsWorker> workers = new ArrayList<AllNGramsWorker>();
+		for (int i = 0; i < 7; i++) {
+			AllNGramsWorker worker = new AllNGramsWorker(surface_forms, automaton);
+			worker.from_paragraph_store = is_paragraph_store;
+			dp.addWorker(worker);
+			workers.add(worker);
+		}
+		dp.extract(path_to_input);
+
+		/** the workers are done, sum their counts */
+		int[] counts = new int[surface_forms.size()];
+		for (AllNGramsWorker worker : workers) {
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += worker.counts[i];
+			worker.counts = null;
+		}
 
 		/** creates the file we want */
 		try {
@@ -121,9 +244,10 @@ public class ExtractAllNGrams {
 				String[] split=Util.fastSplit(line);
 				if (split.length==2){
 					String sf=split[0];
-					bw.write(sf+"\t"+split[1]+"\t"+surface_forms.get(sf)+'\n');
+					int count=counts[surface_forms.get(sf)];
+					bw.write(sf+"\t"+split[1]+"\t"+count+'\n');
 					if (!sf.equals(sf.toLowerCase()) && !lowercase_surface_forms.contains(sf.toLowerCase())){
-						bw.write(sf.toLowerCase()+"\t-1\t"+surface_forms.get(sf)+'\n');
+						bw.write(sf.toLowerCase()+"\t-1\t"+count+'\n');
 					}
 					
 				}
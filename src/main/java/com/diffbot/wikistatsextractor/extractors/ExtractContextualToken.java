@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -23,7 +24,15 @@ import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.util.CharArraySet;
 
 import com.diffbot.wikistatsextractor.dumpparser.DumpParser;
+import com.diffbot.wikistatsextractor.dumpparser.Page;
+import com.diffbot.wikistatsextractor.dumpparser.PageFilter;
+import com.diffbot.wikistatsextractor.util.FieldCursor;
+import com.diffbot.wikistatsextractor.util.PageHeader;
+import com.diffbot.wikistatsextractor.util.ParagraphBuffer;
+import com.diffbot.wikistatsextractor.util.RedirectResolver;
+import com.diffbot.wikistatsextractor.util.StoredPage;
 import com.diffbot.wikistatsextractor.util.Util;
+import com.diffbot.wikistatsextractor.util.WikiTextCleaner;
 
 /**
  * extract for each dbpedia entry, the list of tokens that you can find around
@@ -67,13 +76,21 @@ public class ExtractContextualToken {
 		ConcurrentHashMap<String, List<Integer>> paragraphe_per_resource;
 		/* contains all the existing Uris */
 		Set<String> existing_uris;
-		/* contains the redirections */
-		HashMap<String, String> redirections;
+		/* resolves the redirections */
+		RedirectResolver redirections;
+		PageHeader header = new PageHeader();
+		/** no lists, no references */
+		WikiTextCleaner cleaner = new WikiTextCleaner(true, true, false, true);
+		/** the paragraphs of the current page, reused from one page to the next */
+		ParagraphBuffer paragraphs = new ParagraphBuffer();
+		StoredPage stored_page = new StoredPage();
+		/** true if the pages are records of the paragraph store (see StoredPage) */
+		boolean from_paragraph_store = false;
 
 		protected Analyzer analyzer;
 
 		public ECTWorker(CharArraySet stopwords, String analyzer_name, ConcurrentHashMap<String, List<Integer>> paragraphe_per_resource,
-				Set<String> existing_uris, HashMap<String, String> redirections) {
+				Set<String> existing_uris, RedirectResolver redirections) {
 			String analyzer_full_name = "org.apache.lucene.analysis." + analyzer_name;
 			try {
 				analyzer = (Analyzer) Class.forName(analyzer_full_name).getConstructor(CharArraySet.class).newInstance(stopwords);
@@ -86,125 +103,103 @@ public class ExtractContextualToken {
 
 		}
 
+		@Override
+		public void doSomethingWithPage(Page page) {
+			if (!from_paragraph_store) {
+				super.doSomethingWithPage(page);
+				return;
+			}
+			/** the links of the stored paragraphs are already found and cleaned */
+			processParagraphs(stored_page.readFrom(page.getBytes()).paragraphs);
+		}
+
 		@Override
 		public void doSomethingWithPage(String page) {
 			/**
 			 * get the paragraphs from the page, get rids of the lists, the
-			 * reference, but let the links
+			 * reference, and replace the links by their text
 			 */
+			if (cleaner.clean(header.scan(page), paragraphs))
+				processParagraphs(paragraphs);
+		}
 
-			List<String> paragraphs = Util.getCleanTextFromPage(page, true, true, false,true);
-
-			if (paragraphs != null) {
-
-				
-				for (String text_paragraph : paragraphs) {
-					
-					StringBuilder sb = new StringBuilder();
-					
-					// a paragraphe that is more than 5000 chars? Bullshit.
-					if (text_paragraph.length()>MAX_LENGTH_PARAGRAPH)
-						continue;
-
-					/** look in the paragraph for any links */
-					List<Util.PairUriSF> surface_forms = Util.getSurfaceFormsInString(text_paragraph, MAX_LENGTH_SF,
-							MIN_LENGTH_SF, MAX_NB_TOKEN_SF, LANGUAGE);
-
-					/**
-					 * if we haven't found any surface form, this paragraph is
-					 * useless and we don't anaylze it
-					 */
-					if (surface_forms == null) {
-						continue;
-					}
+		void processParagraphs(ParagraphBuffer paragraphs) {
+			for (int p = 0; p < paragraphs.size(); p++) {
+				// a paragraphe that is more than 5000 chars? Bullshit.
+				if (paragraphs.length(p) > MAX_LENGTH_PARAGRAPH)
+					continue;
 
-					/**
-					 * here we try to find the actual uri. by going through all
-					 * the redirections
-					 */
-					for (Util.PairUriSF pusf : surface_forms) {
-						boolean has_redirection = true;
-						int counter = 0;
-						while (has_redirection) {
-							counter++;
-							if (counter > 15) {
-								System.out.println("too many redirections: " + pusf.surface_form);
-								break;
-							}
-							String uperified = Util.upperifyFirstChar(pusf.uri);
-							String redirect_uri = redirections.get(pusf.uri);
-							if (redirect_uri != null) {
-								pusf.uri = redirect_uri;
-							} else {
-								String redirect_uri2 = redirections.get(uperified);
-								if (redirect_uri2 != null) {
-									pusf.uri = redirect_uri2;
-								} else {
-									has_redirection = false;
-								}
-							}
-						}
-					}
-					
-					/** all right, last check, does the uri exist. If not, we remove it from the list */
-					for (int i=surface_forms.size()-1; i>=0; i--){
-						Util.PairUriSF pusf=surface_forms.get(i);
-						pusf.uri=Util.upperifyFirstChar(pusf.uri);
-						String escaped_uri=Util.escapeWiki(pusf.uri);
-						if (!existing_uris.contains(escaped_uri))
-							surface_forms.remove(i);
-					}
-					
-					if (surface_forms.size()==0) {
-						continue;
-					}
+				/** the links that are in the paragraph */
+				List<Util.PairUriSF> surface_forms = paragraphs.getSurfaceForms(p, MAX_LENGTH_SF, MIN_LENGTH_SF, MAX_NB_TOKEN_SF, LANGUAGE, false);
+				if (surface_forms.size() == 0)
+					continue;
+				processParagraph(surface_forms, paragraphs.getParagraph(p));
+			}
+		}
 
-					
-
-					/** get the Hashcode of the paragraph */
-					int hash = ECTWorker.getNewHash();
-					sb.append(hash);
-
-					/**
-					 * now that have extracted all the surface forms, we can
-					 * clean them in the text
-					 */
-					String clean_paragraph_text = Util.cleanSurfaceForms(text_paragraph);
-
-					/** tokenize here */
-					try {
-						TokenStream stream = analyzer.tokenStream("paragraph", clean_paragraph_text);
-						stream.reset();
-						while (stream.incrementToken()) {
-							String token = stream.getAttribute(CharTermAttribute.class).toString();
-							sb.append(',');
-							sb.append(',');
-							sb.append(token);
-						}
-						sb.append('\n');
-						stream.close();
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-					writeInOutput(sb.toString());
-
-					/** add the surface forms to the collection */
-					for (Util.PairUriSF sf : surface_forms) {
-						List<Integer> paragraph_list = paragraphe_per_resource.get(Util.upperifyFirstChar(sf.uri));
-						if (paragraph_list != null) {
-							synchronized (paragraph_list) {
-								paragraph_list.add(hash);
-							}
-						} else {
-							paragraph_list = new ArrayList<Integer>();
-							paragraph_list.add(hash);
-							paragraphe_per_resource.put(sf.uri, paragraph_list);
-						}
-					}
-				}
+		/**
+		 * resolve the surface forms found in the paragraph, and if some
+		 * remain, output its tokens. The links of clean_paragraph_text are
+		 * already replaced by their text.
+		 */
+		void processParagraph(List<Util.PairUriSF> surface_forms, String clean_paragraph_text) {
+			StringBuilder sb = new StringBuilder();
 
+			/**
+			 * here we try to find the actual uri. by going through all
+			 * the redirections (already followed by the resolver)
+			 */
+			for (Util.PairUriSF pusf : surface_forms)
+				pusf.uri = redirections.resolve(pusf.uri);
+			
+			/** all right, last check, does the uri exist. If not, we remove it from the list */
+			for (int i=surface_forms.size()-1; i>=0; i--){
+				Util.PairUriSF pusf=surface_forms.get(i);
+				String escaped_uri=Util.escapeWiki(pusf.uri);
+				if (!existing_uris.contains(escaped_uri))
+					surface_forms.remove(i);
+			}
+			
+			if (surface_forms.size()==0) {
+				return;
 			}
 
+			
+
+			/** get the Hashcode of the paragraph */
+			int hash = ECTWorker.getNewHash();
+			sb.append(hash);
+
+			/** tokenize here */
+			try {
+				TokenStream stream = analyzer.tokenStream("paragraph", clean_paragraph_text);
+				stream.reset();
+				while (stream.incrementToken()) {
+					String token = stream.getAttribute(CharTermAttribute.class).toString();
+					sb.append(',');
+					sb.append(',');
+					sb.append(token);
+				}
+				sb.append('\n');
+				stream.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			writeInOutput(sb.toString());
+
+			/** add the surface forms to the collection */
+			for (Util.PairUriSF sf : surface_forms) {
+				List<Integer> paragraph_list = paragraphe_per_resource.get(Util.upperifyFirstChar(sf.uri));
+				if (paragraph_list != null) {
+					synchronized (paragraph_list) {
+						paragraph_list.add(hash);
+					}
+				} else {
+					paragraph_list = new ArrayList<Integer>();
+					paragraph_list.add(hash);
+					paragraphe_per_resource.put(sf.uri, paragraph_list);
+				}
+			}
 		}
 	}
 	
@@ -238,29 +233,46 @@ public class ExtractContextualToken {
 			this.paragraphs=paragraphs;
 		}
 		
+		/** walks the fields of the lines */
+		FieldCursor cursor = new FieldCursor();
+		/** the words of the current paragraph, before they go in paragraphs */
+		int[] words = new int[1024];
+		
 		@Override
 		public void doSomethingWithPage(String page) {
 			// the page in question contains multiple lines
-			String[] each_line=page.split("\n");
-			for (String line: each_line){
-				String[] split = Util.fastSplit(line);
-				if (split.length > 1) {
-					Integer indice_paragraph = Integer.parseInt(split[0]);
-					int[] words_in_paragraph = new int[split.length - 1];
-					for (int i = 1; i < split.length; i++) {
-						Integer indice_word_in_voc = vocabulary_one_way.get(split[i]);
-						if (indice_word_in_voc == null) {
-							// we add this word to the vocabulary
-							int hash=getNewHash();
-							vocabulary_one_way.put(split[i], hash);
-							vocabulary_other_way.put(hash, split[i]);
-							indice_word_in_voc = hash;
-						}
-						words_in_paragraph[i - 1] = indice_word_in_voc;
-					}
-					paragraphs[indice_paragraph] = words_in_paragraph;
+			int line_start = 0;
+			while (line_start < page.length()) {
+				int line_end = page.indexOf('\n', line_start);
+				if (line_end == -1)
+					line_end = page.length();
+				addParagraph(page, line_start, line_end);
+				line_start = line_end + 1;
+			}
+		}
+		
+		/** the line is "id_paragraph,,token1,,token2..." */
+		void addParagraph(String page, int line_start, int line_end) {
+			cursor.reset(page, line_start, line_end);
+			cursor.next();
+			int indice_paragraph = cursor.parseInt(-1);
+			int nb_words = 0;
+			while (cursor.next()) {
+				String word = cursor.getString();
+				Integer indice_word_in_voc = vocabulary_one_way.get(word);
+				if (indice_word_in_voc == null) {
+					// we add this word to the vocabulary
+					int hash=getNewHash();
+					vocabulary_one_way.put(word, hash);
+					vocabulary_other_way.put(hash, word);
+					indice_word_in_voc = hash;
 				}
+				if (nb_words == words.length)
+					words = Arrays.copyOf(words, 2 * nb_words);
+				words[nb_words++] = indice_word_in_voc;
 			}
+			if (nb_words > 0 && indice_paragraph >= 0)
+				paragraphs[indice_paragraph] = Arrays.copyOf(words, nb_words);
 		}
 	}
 	
@@ -304,73 +316,86 @@ public class ExtractContextualToken {
 			this.paragraphs=paragraphs;
 		}
 		
+		/** walks the fields of the lines */
+		FieldCursor cursor = new FieldCursor();
+		/** count of each word of the vocabulary for the current resource. All 0 between two lines */
+		int[] helper = null;
+		/** the words of the paragraphs of the current resource */
+		int[] token_per_reference = new int[1024];
+		StringBuilder sb = new StringBuilder();
+		
 		@Override
 		public void doSomethingWithPage(String page) {
+			if (helper == null)
+				helper = new int[VocabularyBuilderWorker.getHashRank()+1];
 			// the page in question contains multiple lines
-			String[] each_line=page.split("\n");
-			int[] helper = new int[VocabularyBuilderWorker.getHashRank()+1];
-			for (String line: each_line){
-				
-					String[] split = Util.fastSplit(line);
-					if (split.length <= MIN_NB_CONTEXTS) {
-						continue;
-					}
-					
-					String resource = split[0];
-					if (resource == null || resource.equals("") || resource.equals(" ")) {
-						continue;
-					}
-					
-					ArrayList<Integer> token_per_reference = new ArrayList<Integer>(30);
-					for (int i = 1; i < split.length; i++) {
-						Integer para_id = null;
-						try {
-							para_id = Integer.parseInt(split[i]);
-						} catch (Exception e) {
-						}
-						;
-						if (para_id != null && para_id != -1 && paragraphs[para_id] != null) {
-							for (int indice_voc : paragraphs[para_id]) {
-								helper[indice_voc]++;
-								token_per_reference.add(indice_voc);
-							}
-						}
-					}
-					StringBuilder sb = new StringBuilder();
-					sb.append(Util.uriStandardization(resource, prefix, LANGUAGE));
-					sb.append("\t");
-					sb.append('{');
-					boolean first = true;
-					
-					ArrayList<TokenCount> tokenCounts=new ArrayList<ExtractContextualToken.ContextBuilder.TokenCount>();
-					for (int i = 0; i < token_per_reference.size(); i++) {
-						int indice_voc = token_per_reference.get(i);
-						int count = helper[indice_voc];
-						if (count != 0) {
-							String actual_word = vocabulary_other_way.get(indice_voc);
-							helper[indice_voc] = 0;
-							if (count > 1) {
-								TokenCount tk=new TokenCount();
-								tk.token=actual_word;
-								tk.count=count;
-								tokenCounts.add(tk);
-
-							}
-						}
+			int line_start = 0;
+			while (line_start < page.length()) {
+				int line_end = page.indexOf('\n', line_start);
+				if (line_end == -1)
+					line_end = page.length();
+				outputResource(page, line_start, line_end);
+				line_start = line_end + 1;
+			}
+		}
+		
+		/** the line is "resource,,id_paragraph_1,,id_paragraph_2..." */
+		void outputResource(String page, int line_start, int line_end) {
+			cursor.reset(page, line_start, line_end);
+			if (cursor.countRemaining() <= MIN_NB_CONTEXTS)
+				return;
+			
+			cursor.next();
+			String resource = cursor.getString();
+			if (resource.equals("") || resource.equals(" "))
+				return;
+			
+			int nb_tokens = 0;
+			while (cursor.next()) {
+				int para_id = cursor.parseInt(-1);
+				if (para_id != -1 && paragraphs[para_id] != null) {
+					for (int indice_voc : paragraphs[para_id]) {
+						helper[indice_voc]++;
+						if (nb_tokens == token_per_reference.length)
+							token_per_reference = Arrays.copyOf(token_per_reference, 2 * nb_tokens);
+						token_per_reference[nb_tokens++] = indice_voc;
 					}
-					
-					Collections.sort(tokenCounts, new CompTokenCount());
-					for (TokenCount tk : tokenCounts){
-						if (first)
-							first = false;
-						else
-							sb.append(",");
-						sb.append("(" + tk.token + "," + tk.count + ")");
+				}
+			}
+			sb.setLength(0);
+			sb.append(Util.uriStandardization(resource, prefix, LANGUAGE));
+			sb.append("\t");
+			sb.append('{');
+			boolean first = true;
+			
+			ArrayList<TokenCount> tokenCounts=new ArrayList<ExtractContextualToken.ContextBuilder.TokenCount>();
+			for (int i = 0; i < nb_tokens; i++) {
+				int indice_voc = token_per_reference[i];
+				int count = helper[indice_voc];
+				if (count != 0) {
+					String actual_word = vocabulary_other_way.get(indice_voc);
+					helper[indice_voc] = 0;
+					if (count > 1) {
+						TokenCount tk=new TokenCount();
+						tk.token=actual_word;
+						tk.count=count;
+						tokenCounts.add(tk);
+
 					}
-					sb.append("}");
-					sb.append("\n");
-					writeInOutput(sb.toString());
+				}
 			}
+			
+			Collections.sort(tokenCounts, new CompTokenCount());
+			for (TokenCount tk : tokenCounts){
+				if (first)
+					first = false;
+				else
+					sb.append(",");
+				sb.append('(').append(tk.token).append(',').append(tk.count).append(')');
+			}
+			sb.append("}");
+			sb.append("\n");
+			writeInOutput(sb.toString());
 		}
 	}
 	
@@ -398,6 +423,15 @@ public class ExtractContextualToken {
 	 */
 	public static void extractContextualToken(String path_to_dump, String tmp_folder, String path_to_stopwords, String path_to_output,
 			String path_to_uri_count, String path_to_redirections) {
+		extractContextualToken(path_to_dump, false, tmp_folder, path_to_stopwords, path_to_output, path_to_uri_count, path_to_redirections);
+	}
+
+	/**
+	 * same as above. If is_paragraph_store, path_to_input is the paragraph
+	 * store written by the first pass instead of the dump.
+	 */
+	public static void extractContextualToken(String path_to_input, boolean is_paragraph_store, String tmp_folder, String path_to_stopwords,
+			String path_to_output, String path_to_uri_count, String path_to_redirections) {
 		String path_to_tmp_paragraphs = tmp_folder+"tmp_paragraphes";
 		String path_to_tmp_ref = tmp_folder+"tmp_referencess";
 		/*************** FIRST STEP ************/
@@ -451,15 +485,23 @@ public class ExtractContextualToken {
 		}
 		;
 
+		/** the chains of redirections are followed once for all */
+		RedirectResolver resolver = new RedirectResolver(redirections);
+
 		ConcurrentHashMap<String, List<Integer>> storage_references = new ConcurrentHashMap<String, List<Integer>>(5000000, 0.5f, 6);
 		DumpParser dp = new DumpParser();
 		dp.setAnOutput(path_to_tmp_paragraphs);
+		/** only the articles are worth it, the reader skips the rest */
+		dp.setPageFilter(PageFilter.articles());
+		dp.setSplitByRecords(is_paragraph_store);
 		for (int i = 0; i < 6; i++) {
-			dp.addWorker(new ECTWorker(stopwords, ANAYZER_NAME, storage_references, existing_Uri, redirections));
+			ECTWorker worker = new ECTWorker(stopwords, ANAYZER_NAME, storage_references, existing_Uri, resolver);
+			worker.from_paragraph_store = is_paragraph_store;
+			dp.addWorker(worker);
 		}
 
 		// launch the extraction
-		dp.extract(path_to_dump);
+		dp.extract(path_to_input);
 
 		long start = System.currentTimeMillis();
 		/** output the concurrent hashmap to a file */
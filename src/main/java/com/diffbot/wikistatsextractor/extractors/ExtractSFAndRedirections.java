@@ -1,20 +1,36 @@
 package com.diffbot.wikistatsextractor.extractors;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.diffbot.wikistatsextractor.dumpparser.DumpParser;
+import com.diffbot.wikistatsextractor.dumpparser.RecordWriter;
+import com.diffbot.wikistatsextractor.util.LongCountMap;
+import com.diffbot.wikistatsextractor.util.PairCountRuns;
+import com.diffbot.wikistatsextractor.util.PageHeader;
+import com.diffbot.wikistatsextractor.util.ParagraphBuffer;
+import com.diffbot.wikistatsextractor.util.ParallelSort;
+import com.diffbot.wikistatsextractor.util.RedirectResolver;
+import com.diffbot.wikistatsextractor.util.StoredPage;
+import com.diffbot.wikistatsextractor.util.SurfaceFormDictionary;
 import com.diffbot.wikistatsextractor.util.Triplet;
 import com.diffbot.wikistatsextractor.util.Util;
-import com.diffbot.wikistatsextractor.util.Util.PairUriSF;
+import com.diffbot.wikistatsextractor.util.WikiTextCleaner;
 
 /**
  * Extract the Surface form as well as the uri they link to in the text.
@@ -29,17 +45,55 @@ public class ExtractSFAndRedirections {
 	public static int NB_WORKERS=6;
 	public static int MAX_NB_TOKEN_SF = 4;
 	public static int MIN_OCCURENCE_COUPLE = 2;
+	/**
+	 * budget, in MB, of the pairs counted by the workers. Beyond it, they are
+	 * written in sorted runs next to the tmp files, and merged at the end. 0
+	 * for no limit.
+	 */
+	public static int MAX_PAIR_COUNTS_MB = 0;
 	public static String LANGUAGE = "en";
 
 	public static class RedirAndSFWorker extends DumpParser.Worker {
-		ConcurrentHashMap<Util.PairUriSF, Integer> surface_form_index;
+		/** the uris and the surface forms found by this worker, each one with an id */
+		SurfaceFormDictionary.Builder uris = new SurfaceFormDictionary.Builder(1 << 16);
+		SurfaceFormDictionary.Builder surface_forms = new SurfaceFormDictionary.Builder(1 << 16);
+		/**
+		 * the number of times each pair (uri id, surface form id) is found,
+		 * merged with the others' at the end
+		 */
+		LongCountMap pair_counts = new LongCountMap(1 << 16);
+		/** if not null, the counts go there when they take more than max_bytes */
+		PairCountRuns runs = null;
+		long max_bytes;
+		/**
+		 * set if a run could not be written: the counting stops, and the
+		 * extraction fails once the dump is read
+		 */
+		IOException spill_error = null;
 		ConcurrentHashMap<String, String> redirection;
 		// will receive the name of pages that actually exist
 		ConcurrentHashMap<String, Integer> page_titles;
+		/** where the title, the redirection and the text are in the current page */
+		PageHeader header = new PageHeader();
+		/** keeps the lists and the references, and all their links */
+		WikiTextCleaner cleaner = new WikiTextCleaner(false, false, false, true);
+		/** the paragraphs of the current page, reused from one page to the next */
+		ParagraphBuffer paragraphs = new ParagraphBuffer();
+		/** the articles as the next passes see them */
+		WikiTextCleaner store_cleaner = new WikiTextCleaner(true, true, false, true);
+		StoredPage stored_page = new StoredPage();
+		/** if not null, the articles are cleaned and stored for the next passes */
+		RecordWriter paragraph_store = null;
+		/**
+		 * set if an article could not be stored: this worker stops storing,
+		 * and the extraction fails once the dump is read
+		 */
+		IOException store_error = null;
+		/** where a StoredPage is encoded before going in the store */
+		ByteArrayOutputStream store_buffer = new ByteArrayOutputStream(64 * 1024);
+		DataOutputStream store_output = new DataOutputStream(store_buffer);
 
-		public RedirAndSFWorker(ConcurrentHashMap<Util.PairUriSF, Integer> surface_form_index, ConcurrentHashMap<String, String> redirection,
-				ConcurrentHashMap<String, Integer> page_titles) {
-			this.surface_form_index = surface_form_index;
+		public RedirAndSFWorker(ConcurrentHashMap<String, String> redirection, ConcurrentHashMap<String, Integer> page_titles) {
 			this.redirection = redirection;
 			this.page_titles = page_titles;
 		}
@@ -51,44 +105,99 @@ public class ExtractSFAndRedirections {
 			 * the lists and the links but get read of {{ }} and {| |}/ See the
 			 * description of this function for more infos
 			 */
-			List<String> paragraphs = Util.getCleanTextFromPage(page, false, false, false,true);
-
-			if (paragraphs != null) {
+			header.scan(page);
+			if (spill_error == null && cleaner.clean(header, paragraphs)) {
 				/**
-				 * obtain couples Uri - Surface pairs in each paragraph, and
-				 * store it to a HashMap
+				 * obtain couples Uri - Surface pairs in each paragraph, the
+				 * nested ones included, and store it to a HashMap
 				 */
-				for (String paragraph : paragraphs) {
-					List<Util.PairUriSF> pairsUriSF = Util.getAllSurfaceFormsInString(paragraph, MAX_LENGTH_SF, MIN_LENGTH_SF, MAX_NB_TOKEN_SF, LANGUAGE);
-					for (Util.PairUriSF pusf : pairsUriSF) {
-						Integer count = surface_form_index.get(pusf);
-						if (count == null)
-							surface_form_index.put(pusf, 1);
-						else
-							surface_form_index.put(pusf, 1 + count);
+				for (int p = 0; p < paragraphs.size(); p++) {
+					List<Util.PairUriSF> pairsUriSF = paragraphs.getSurfaceForms(p, MAX_LENGTH_SF, MIN_LENGTH_SF, MAX_NB_TOKEN_SF, LANGUAGE, true);
+					for (Util.PairUriSF pusf : pairsUriSF)
+						pair_counts.increment(LongCountMap.pack(uris.add(pusf.uri), surface_forms.add(pusf.surface_form)));
+				}
+				if (runs != null && pair_counts.size() > 0 && sizeInBytes() > max_bytes) {
+					try {
+						spill();
+					} catch (IOException ioe) {
+						spill_error = ioe;
 					}
 				}
 			}
 
 			
 			/** look for the title of the page */
-			String title = Util.getTitle(page);
-			if (Util.isWikiText(page) && title != null) {
+			String title = header.getTitle();
+			if (header.isWikiText() && title != null) {
 				page_titles.put(title, 0);
 			}
 
 			/** now look for all the redirections */
-			if (page.contains("<redirect title=")) {
-				int start_redirect = page.indexOf("<redirect title=");
-				int end_redirect = page.indexOf("/>", start_redirect);
-				String redirect = page.substring(start_redirect + 16, end_redirect);
-				redirect = redirect.trim();
-				redirect = redirect.replaceAll("\"", "");
-				redirect = Util.unescapeXML(redirect);
+			if (header.isRedirect()) {
+				String redirect = header.getRedirect();
 				if (title != null && redirect != null)
 					redirection.put(title, redirect);
 			}
 
+			/**
+			 * the next passes only look at the articles (see
+			 * PageFilter.articles()), cleaned without the lists and the
+			 * references
+			 */
+			if (paragraph_store != null && store_error == null && header.has_ns && header.ns == 0 && header.isWikiText() && !header.isRedirect()) {
+				if (store_cleaner.clean(header, stored_page.paragraphs)) {
+					try {
+						stored_page.id = header.id;
+						stored_page.title = title;
+						store_buffer.reset();
+						stored_page.writeTo(store_output);
+						store_output.flush();
+						paragraph_store.write(store_buffer.toByteArray(), 0, store_buffer.size());
+					} catch (IOException ioe) {
+						store_error = ioe;
+					}
+				}
+			}
+
+		}
+
+		/** the memory taken by the counts */
+		long sizeInBytes() {
+			return uris.sizeInBytes() + surface_forms.sizeInBytes() + pair_counts.sizeInBytes();
+		}
+
+		/** write the counts in a new run, and start again from scratch */
+		void spill() throws IOException {
+			runs.write(uris, surface_forms, pair_counts);
+			uris = new SurfaceFormDictionary.Builder(1 << 16);
+			surface_forms = new SurfaceFormDictionary.Builder(1 << 16);
+			pair_counts = new LongCountMap(1 << 16);
+		}
+
+		/**
+		 * add the counts of other to the ones of this worker. The ids of other
+		 * are translated once to the ones of this worker.
+		 */
+		void addAll(RedirAndSFWorker other) {
+			int[] uri_ids = new int[other.uris.size()];
+			int[] surface_form_ids = new int[other.surface_forms.size()];
+			Arrays.fill(uri_ids, -1);
+			Arrays.fill(surface_form_ids, -1);
+			for (int slot = 0; slot < other.pair_counts.capacity(); slot++) {
+				long key = other.pair_counts.keyAt(slot);
+				if (key == LongCountMap.EMPTY)
+					continue;
+				int uri = LongCountMap.high(key);
+				int surface_form = LongCountMap.low(key);
+				if (uri_ids[uri] == -1)
+					uri_ids[uri] = uris.add(other.uris.getString(uri));
+				if (surface_form_ids[surface_form] == -1)
+					surface_form_ids[surface_form] = surface_forms.add(other.surface_forms.getString(surface_form));
+				pair_counts.add(LongCountMap.pack(uri_ids[uri], surface_form_ids[surface_form]), other.pair_counts.countAt(slot));
+			}
+			other.pair_counts = null;
+			other.uris = null;
+			other.surface_forms = null;
 		}
 
 	}
@@ -96,139 +205,395 @@ public class ExtractSFAndRedirections {
 	/** extract all surface forms and all redirection that it can get */
 	public static void extractAllSurfaceFormsAndRedirection(final String path_to_wiki_articles, String path_to_output_surface_form,
 			String path_to_output_redirections, String path_to_ouput_uri_counts, String path_to_output_sf_counts) {
+		extractAllSurfaceFormsAndRedirection(path_to_wiki_articles, path_to_output_surface_form, path_to_output_redirections,
+				path_to_ouput_uri_counts, path_to_output_sf_counts, null);
+	}
+
+	/**
+	 * same as above. If path_to_paragraph_store is not null, the articles are
+	 * also cleaned and written there (see StoredPage), so that the next passes
+	 * can read them instead of the dump. Returns true if they were, the
+	 * extraction failing if the store cannot be written.
+	 */
+	public static boolean extractAllSurfaceFormsAndRedirection(final String path_to_wiki_articles, final String path_to_output_surface_form,
+			final String path_to_output_redirections, final String path_to_ouput_uri_counts, final String path_to_output_sf_counts,
+			String path_to_paragraph_store) {
 
 		/** container for the output */
-		ConcurrentHashMap<Util.PairUriSF, Integer> surface_form_index = new ConcurrentHashMap<Util.PairUriSF, Integer>(10000000, 0.5f, 8);
-		ConcurrentHashMap<String, String> redirection = new ConcurrentHashMap<String, String>(10000000, 0.5f, 8);
+		final ConcurrentHashMap<String, String> redirection = new ConcurrentHashMap<String, String>(10000000, 0.5f, 8);
 		ConcurrentHashMap<String, Integer> page_titles = new ConcurrentHashMap<String, Integer>();
 
 		/** launch the dump Parsing */
+		RecordWriter paragraph_store = null;
+		if (path_to_paragraph_store != null) {
+			try {
+				paragraph_store = new RecordWriter(path_to_paragraph_store);
+			} catch (IOException ioe) {
+				throw new RuntimeException("the paragraph store " + path_to_paragraph_store + " could not be created", ioe);
+			}
+		}
+		/** the budget of the counts is shared by the workers */
+		PairCountRuns runs = null;
+		if (MAX_PAIR_COUNTS_MB > 0)
+			runs = new PairCountRuns(path_to_output_sf_counts + "_run_");
 		DumpParser dp = new DumpParser();
-		for (int i = 0; i < NB_WORKERS; i++)
-			dp.addWorker(new RedirAndSFWorker(surface_form_index, redirection, page_titles));
+		ArrayList<RedirAndSFWorker> workers = new ArrayList<RedirAndSFWorker>();
+		for (int i = 0; i < NB_WORKERS; i++) {
+			RedirAndSFWorker worker = new RedirAndSFWorker(redirection, page_titles);
+			worker.paragraph_store = paragraph_store;
+			worker.runs = runs;
+			worker.max_bytes = MAX_PAIR_COUNTS_MB * 1024L * 1024L / NB_WORKERS;
+			dp.addWorker(worker);
+			workers.add(worker);
+		}
 		dp.extract(path_to_wiki_articles);
 
-		/** exploit the dump parsing (single threaded but should be fast */
-		/**
-		 * For each element of the HashMap, we follow the list of redirection
-		 * that we got.
-		 */
-		ArrayList<Triplet> list_all_triplets = new ArrayList<Triplet>();
-		for (PairUriSF key : surface_form_index.keySet()) {
-			int count = surface_form_index.get(key);
-			if (count < MIN_OCCURENCE_COUPLE)
-				continue;
-			if (key.surface_form.endsWith(","))
-				continue;
-			String uri = key.uri;
-			String surface_form = key.surface_form;
-			Triplet t = new Triplet(uri, surface_form, count);
-			boolean has_redirection = true;
-			int counter = 0;
-			while (has_redirection) {
-				counter++;
-				if (counter > 15) {
-					System.out.println("too many redirections: " + key + "  " + t.toString());
-					break;
+		if (paragraph_store != null) {
+			/** a store that is not complete is not left for the next passes */
+			try {
+				paragraph_store.close();
+				for (RedirAndSFWorker worker : workers) {
+					if (worker.store_error != null)
+						throw worker.store_error;
 				}
+			} catch (IOException ioe) {
+				new File(path_to_paragraph_store).delete();
+				if (runs != null)
+					runs.delete();
+				throw new RuntimeException("the paragraph store " + path_to_paragraph_store + " could not be written", ioe);
+			}
+		}
+		/** if some counts are on disk, all of them go there */
+		boolean spilled = runs != null && runs.size() > 0;
+		try {
+			for (RedirAndSFWorker worker : workers) {
+				if (worker.spill_error != null)
+					throw worker.spill_error;
+			}
+			if (spilled) {
+				for (RedirAndSFWorker worker : workers)
+					worker.spill();
+			}
+		} catch (IOException ioe) {
+			runs.delete();
+			throw new RuntimeException("the pair counts could not be written in " + runs.getPathPrefix() + "*", ioe);
+		}
 
-				String uperified = Util.upperifyFirstChar(t.uri);
-				if (redirection.containsKey(t.uri)) {
-					String redirect_uri = redirection.get(t.uri);
-					if (redirect_uri == null)
-						has_redirection = false;
-					else
-						t.uri = redirect_uri;
-				} else if (redirection.containsKey(uperified)) {
-					String redirect_uri = redirection.get(uperified);
-					if (redirect_uri == null)
-						has_redirection = false;
-					else
-						t.uri = redirect_uri;
-				} else {
-					has_redirection = false;
+		/**
+		 * exploit the dump parsing, with NB_WORKERS threads. The redirection
+		 * map is output for future uses while the counts are gathered, before
+		 * it is resolved.
+		 */
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(NB_WORKERS, 3));
+		try {
+			Future<?> redirections_written = pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(path_to_output_redirections)), "UTF8"));
+						for (String key : redirection.keySet()) {
+							bw.write(key + ",," + redirection.get(key) + "\n");
+						}
+						bw.close();
+					} catch (IOException ioe) {
+					}
 				}
-			}
-			t.uri = Util.upperifyFirstChar(t.uri);
+			});
+			Triplet[] all_triplets = null;
+			if (spilled)
+				all_triplets = gatherTriplets(runs);
+			else
+				mergeWorkers(workers, pool);
+			waitFor(redirections_written);
 
 			/**
-			 * we add the triplet in the list only if an actual page with this
-			 * title exists
+			 * For each triplet, we follow the list of redirection that we got.
+			 * They are followed once for all by the resolver.
 			 */
-			Integer count_for_uri = page_titles.get(t.uri);
-			if (count_for_uri != null) {
-				list_all_triplets.add(t);
-				page_titles.put(t.uri, t.count + count_for_uri);
+			RedirectResolver resolver = new RedirectResolver(redirection);
+			if (spilled)
+				all_triplets = resolveTriplets(all_triplets, resolver, page_titles, pool);
+			else
+				all_triplets = gatherTriplets(workers.get(0), resolver, page_titles, pool);
+			ParallelSort.sort(all_triplets, new Triplet.SortByUri(), NB_WORKERS);
+			System.out.println(all_triplets.length + " triplets sorted");
+
+			/** we will now output the result, the three files at the same time */
+			final Triplet[] sorted_triplets = all_triplets;
+			ArrayList<Future<?>> outputs = new ArrayList<Future<?>>();
+			outputs.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					/** we aggregate the count of the same couples (uri, surface_form) */
+					try {
+						BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(path_to_output_surface_form)), "UTF8"));
+						for (int i = 0; i < sorted_triplets.length; i++) {
+							Triplet t = sorted_triplets[i];
+							int count = t.count;
+							while (i + 1 < sorted_triplets.length && Triplet.same_couple_uri_sf(t, sorted_triplets[i + 1])) {
+								count += sorted_triplets[i + 1].count;
+								i++;
+							}
+							bw.write(t.surface_form + "\t" + Util.uriStandardization(t.uri, null, LANGUAGE) + "\t" + count + "\n");
+						}
+						bw.close();
+					} catch (IOException ioe) {
+					}
+				}
+			}));
+
+			outputs.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					/** output the counts per uri: the sum of the counts of its triplets, that are together */
+					try {
+						BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(path_to_ouput_uri_counts)), "UTF8"));
+						for (int i = 0; i < sorted_triplets.length; i++) {
+							Triplet t = sorted_triplets[i];
+							int count = t.count;
+							while (i + 1 < sorted_triplets.length && t.uri.equals(sorted_triplets[i + 1].uri)) {
+								count += sorted_triplets[i + 1].count;
+								i++;
+							}
+							bw.write(Util.uriStandardization(t.uri, null, LANGUAGE) + "\t" + count + "\n");
+						}
+						bw.close();
+					} catch (IOException ioe) {
+					}
+				}
+			}));
+
+			outputs.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					/** output the count per surface form */
+					LinkedHashMap<String, Integer> counts_per_sf = new LinkedHashMap<String, Integer>();
+					for (Triplet t : sorted_triplets) {
+						Integer count = counts_per_sf.get(t.surface_form);
+						if (count == null)
+							counts_per_sf.put(t.surface_form, t.count);
+						else
+							counts_per_sf.put(t.surface_form, t.count + count);
+					}
+					try {
+						BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(path_to_output_sf_counts)), "UTF8"));
+						for (String sf : counts_per_sf.keySet()) {
+							bw.write(sf + ",," + counts_per_sf.get(sf) + "\n");
+						}
+						bw.close();
+					} catch (IOException ioe) {
+					}
+				}
+			}));
+			for (Future<?> output : outputs)
+				waitFor(output);
+		} finally {
+			/** its threads are not daemons, they would keep the JVM alive after an error */
+			pool.shutdownNow();
+		}
+		return paragraph_store != null;
+	}
+
+	/**
+	 * merge the counts of the workers two by two, at the same time, until
+	 * they are all in the first one.
+	 */
+	private static void mergeWorkers(final ArrayList<RedirAndSFWorker> workers, ExecutorService pool) {
+		for (int step = 1; step < workers.size(); step *= 2) {
+			ArrayList<Future<?>> merges = new ArrayList<Future<?>>();
+			for (int i = 0; i + step < workers.size(); i += 2 * step) {
+				final RedirAndSFWorker worker = workers.get(i);
+				final RedirAndSFWorker other = workers.get(i + step);
+				merges.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						worker.addAll(other);
+					}
+				}));
 			}
+			for (Future<?> merge : merges)
+				waitFor(merge);
+		}
+	}
+
+	/**
+	 * the pairs counted by the merged worker, with their uri resolved, and
+	 * only the ones whose uri is the title of an actual page. The slots (and
+	 * then the uri ids) are split among the threads: the uris of the pairs
+	 * that are kept are marked, each one of them is resolved once, and the
+	 * triplets of a uri share its resolved String.
+	 */
+	private static Triplet[] gatherTriplets(RedirAndSFWorker merged_worker, final RedirectResolver resolver,
+			final ConcurrentHashMap<String, Integer> page_titles, ExecutorService pool) {
+		final LongCountMap pair_counts = merged_worker.pair_counts;
+		final SurfaceFormDictionary uris = merged_worker.uris.build();
+		final SurfaceFormDictionary surface_forms = merged_worker.surface_forms.build();
+		merged_worker.pair_counts = null;
+		merged_worker.uris = null;
+		merged_worker.surface_forms = null;
+		System.out.println(pair_counts.size() + " pairs of " + uris.size() + " uris and " + surface_forms.size() + " surface forms");
 
+		/** the uris that have at least a pair kept */
+		final boolean[] used_uris = new boolean[uris.size()];
+		final int capacity = pair_counts.capacity();
+		ArrayList<Future<?>> marks = new ArrayList<Future<?>>();
+		for (int k = 0; k < NB_WORKERS; k++) {
+			final int from = (int) ((long) capacity * k / NB_WORKERS);
+			final int to = (int) ((long) capacity * (k + 1) / NB_WORKERS);
+			marks.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int slot = from; slot < to; slot++) {
+						long key = pair_counts.keyAt(slot);
+						if (key != LongCountMap.EMPTY && isKept(pair_counts.countAt(slot), surface_forms, LongCountMap.low(key)))
+							used_uris[LongCountMap.high(key)] = true;
+					}
+				}
+			}));
 		}
-		Collections.sort(list_all_triplets, new Triplet.SortByUri());
-		/** we don't need the concurrent HashMap anymore, let's free it */
-		surface_form_index = null;
+		for (Future<?> mark : marks)
+			waitFor(mark);
 
-		/**
-		 * we will now output the result, and we aggregate the count of the same
-		 * couples (uri, surface_form)
-		 */
-		try {
-			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(path_to_output_surface_form)), "UTF8"));
-			for (int i = 0; i < list_all_triplets.size(); i++) {
-				Triplet t = list_all_triplets.get(i);
-				int count=t.count;
-				while (i + 1 < list_all_triplets.size() && Triplet.same_couple_uri_sf(t, list_all_triplets.get(i + 1))) {
-					count += list_all_triplets.get(i + 1).count;
-					i++;
+		/** the resolved uri of each uri id, null if it is not used or not the title of a page */
+		final String[] resolved_uris = new String[uris.size()];
+		ArrayList<Future<?>> resolutions = new ArrayList<Future<?>>();
+		for (int k = 0; k < NB_WORKERS; k++) {
+			final int from = (int) ((long) uris.size() * k / NB_WORKERS);
+			final int to = (int) ((long) uris.size() * (k + 1) / NB_WORKERS);
+			resolutions.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int uri = from; uri < to; uri++) {
+						if (!used_uris[uri])
+							continue;
+						String resolved_uri = resolver.resolve(uris.getString(uri));
+						if (page_titles.containsKey(resolved_uri))
+							resolved_uris[uri] = resolved_uri;
+					}
 				}
-				bw.write(t.surface_form + "\t" + Util.uriStandardization(t.uri, null, LANGUAGE) + "\t" + count + "\n");
-			}
-			bw.close();
-		} catch (IOException ioe) {
+			}));
 		}
+		for (Future<?> resolution : resolutions)
+			waitFor(resolution);
 
-		/** output the redirection map for future uses */
-		try {
-			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(path_to_output_redirections)), "UTF8"));
-			for (String key : redirection.keySet()) {
-				bw.write(key + ",," + redirection.get(key) + "\n");
-			}
-			bw.close();
-		} catch (IOException ioe) {
+		ArrayList<Future<ArrayList<Triplet>>> parts = new ArrayList<Future<ArrayList<Triplet>>>();
+		for (int k = 0; k < NB_WORKERS; k++) {
+			final int from = (int) ((long) capacity * k / NB_WORKERS);
+			final int to = (int) ((long) capacity * (k + 1) / NB_WORKERS);
+			parts.add(pool.submit(new Callable<ArrayList<Triplet>>() {
+				@Override
+				public ArrayList<Triplet> call() {
+					ArrayList<Triplet> triplets = new ArrayList<Triplet>();
+					for (int slot = from; slot < to; slot++) {
+						long key = pair_counts.keyAt(slot);
+						if (key == LongCountMap.EMPTY)
+							continue;
+						int count = pair_counts.countAt(slot);
+						int surface_form = LongCountMap.low(key);
+						String resolved_uri = resolved_uris[LongCountMap.high(key)];
+						if (resolved_uri != null && isKept(count, surface_forms, surface_form))
+							triplets.add(new Triplet(resolved_uri, surface_forms.getString(surface_form), count));
+					}
+					return triplets;
+				}
+			}));
 		}
+		return concat(parts);
+	}
+
+	/** whether a pair is output: seen often enough, and its surface form does not end with a comma */
+	private static boolean isKept(int count, SurfaceFormDictionary surface_forms, int surface_form) {
+		if (count < MIN_OCCURENCE_COUPLE)
+			return false;
+		int sf_length = surface_forms.length(surface_form);
+		return sf_length == 0 || surface_forms.charAt(surface_form, sf_length - 1) != ',';
+	}
 
-		/** output the counts per uri */
+	/** same as above, with the counts written in runs by the workers */
+	private static Triplet[] gatherTriplets(PairCountRuns runs) {
+		System.out.println("merging " + runs.size() + " runs of pair counts");
+		ArrayList<Triplet> triplets = new ArrayList<Triplet>();
 		try {
-			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(path_to_ouput_uri_counts)), "UTF8"));
-			String last_one = "";
-			for (Triplet t : list_all_triplets) {
-				if (last_one.equals(t.uri))
+			/** the pairs come sorted by uri, with the same String for the same uri */
+			PairCountRuns.Merger merger = runs.merge(MIN_OCCURENCE_COUPLE);
+			while (merger.next()) {
+				if (merger.getSurfaceForm().endsWith(","))
 					continue;
-				last_one = t.uri;
-				bw.write(Util.uriStandardization(t.uri, null, LANGUAGE) + "\t" + page_titles.get(t.uri) + "\n");
+				triplets.add(new Triplet(merger.getUri(), merger.getSurfaceForm(), merger.getCount()));
 			}
-			bw.close();
 		} catch (IOException ioe) {
+			throw new RuntimeException("the runs of pair counts " + runs.getPathPrefix() + "* could not be merged", ioe);
+		} finally {
+			runs.delete();
 		}
+		return triplets.toArray(new Triplet[triplets.size()]);
+	}
 
-		/** output the count per surface form */
-		LinkedHashMap<String, Integer> counts_per_sf = new LinkedHashMap<String, Integer>();
-		for (Triplet t : list_all_triplets) {
-			
-			Integer count = counts_per_sf.get(t.surface_form);
-			if (count == null)
-				counts_per_sf.put(t.surface_form, t.count);
-			else
-				counts_per_sf.put(t.surface_form, t.count + count);
+	/**
+	 * resolve the uri of the triplets, and keep only the ones whose uri is the
+	 * title of an actual page. The triplets come sorted by uri, and are split
+	 * among the threads: a uri is resolved once in each part it is in.
+	 */
+	private static Triplet[] resolveTriplets(final Triplet[] triplets, final RedirectResolver resolver,
+			final ConcurrentHashMap<String, Integer> page_titles, ExecutorService pool) {
+		ArrayList<Future<ArrayList<Triplet>>> parts = new ArrayList<Future<ArrayList<Triplet>>>();
+		for (int k = 0; k < NB_WORKERS; k++) {
+			final int from = (int) ((long) triplets.length * k / NB_WORKERS);
+			final int to = (int) ((long) triplets.length * (k + 1) / NB_WORKERS);
+			parts.add(pool.submit(new Callable<ArrayList<Triplet>>() {
+				@Override
+				public ArrayList<Triplet> call() {
+					ArrayList<Triplet> kept = new ArrayList<Triplet>();
+					String uri = null;
+					String resolved_uri = null;
+					for (int i = from; i < to; i++) {
+						Triplet t = triplets[i];
+						if (t.uri != uri) {
+							uri = t.uri;
+							resolved_uri = resolver.resolve(uri);
+						}
+						if (page_titles.containsKey(resolved_uri)) {
+							t.uri = resolved_uri;
+							kept.add(t);
+						}
+						triplets[i] = null;
+					}
+					return kept;
+				}
+			}));
+		}
+		return concat(parts);
+	}
 
+	/** the triplets of all the parts, in order */
+	private static Triplet[] concat(ArrayList<Future<ArrayList<Triplet>>> parts) {
+		ArrayList<ArrayList<Triplet>> lists = new ArrayList<ArrayList<Triplet>>();
+		int size = 0;
+		for (Future<ArrayList<Triplet>> part : parts) {
+			ArrayList<Triplet> list = waitFor(part);
+			lists.add(list);
+			size += list.size();
 		}
-		try {
-			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(path_to_output_sf_counts)), "UTF8"));
-			for (String sf : counts_per_sf.keySet()) {
-				bw.write(sf + ",," + counts_per_sf.get(sf) + "\n");
-			}
-			bw.close();
-		} catch (IOException ioe) {
+		Triplet[] triplets = new Triplet[size];
+		int position = 0;
+		for (int k = 0; k < lists.size(); k++) {
+			for (Triplet t : lists.get(k))
+				triplets[position++] = t;
+			lists.set(k, null);
 		}
+		return triplets;
+	}
 
+	/** the result of a task of the pool, once it is done */
+	private static <T> T waitFor(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
 	}
 
 	public static void main(String[] args) {
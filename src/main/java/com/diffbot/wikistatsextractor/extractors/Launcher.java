@@ -5,6 +5,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
 
+import com.diffbot.wikistatsextractor.dumpparser.DumpParser;
+import com.diffbot.wikistatsextractor.util.DictionarySegmenter;
+import com.diffbot.wikistatsextractor.util.Tokenizer;
+import com.diffbot.wikistatsextractor.util.WikiTextCleaner;
+
 public class Launcher {
 	
 	public static void main(String[] args){
@@ -44,27 +49,55 @@ public class Launcher {
 		String lucene_analyzer=prop.getProperty("lucene_analyzer", "en.EnglishAnalyzer");
 		String path_to_stopwords=prop.getProperty("stop_words", "data/stopwords.en.list");
 		
+		/** if set, the first pass stores the clean articles, and the next ones read them instead of the dump */
+		boolean use_paragraph_store=Boolean.parseBoolean(prop.getProperty("paragraph_store", "false"));
+		String paragraph_store=tmp_folder+"tmp_paragraph_store_"+language;
+		
 		long start=System.currentTimeMillis();
 		
 		/** set the parameters */
+		DumpParser.NB_DECOMPRESSION_THREADS=Integer.parseInt(prop.getProperty("NB_DECOMPRESSION_THREADS", "4"));
+		DumpParser.NB_MAPPED_READERS=Integer.parseInt(prop.getProperty("NB_MAPPED_READERS", "4"));
+		DumpParser.NB_FILE_READERS=Integer.parseInt(prop.getProperty("NB_FILE_READERS", "4"));
+		DumpParser.STATS_PERIOD=Integer.parseInt(prop.getProperty("STATS_PERIOD", "10"));
+		WikiTextCleaner.MAX_PAGE_LENGTH=Integer.parseInt(prop.getProperty("MAX_PAGE_LENGTH", "1000000"));
+		WikiTextCleaner.MAX_PAGE_STEPS=Integer.parseInt(prop.getProperty("MAX_PAGE_STEPS", "10000000"));
+		/** the words of a language without spaces, to split its text in tokens */
+		String segmentation_dictionary=prop.getProperty("segmentation_dictionary", "");
+		if (!segmentation_dictionary.isEmpty()){
+			try {
+				Tokenizer.setSegmenter(language, DictionarySegmenter.load(segmentation_dictionary));
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
 		ExtractSFAndRedirections.MAX_LENGTH_SF=Integer.parseInt(prop.getProperty("MAX_LENGTH_SF"));
 		ExtractSFAndRedirections.MIN_LENGTH_SF=Integer.parseInt(prop.getProperty("MIN_LENGTH_SF"));;
 		ExtractSFAndRedirections.MAX_NB_TOKEN_SF=Integer.parseInt(prop.getProperty("MAX_NB_TOKEN_SF"));;
 		ExtractSFAndRedirections.MIN_OCCURENCE_COUPLE=Integer.parseInt(prop.getProperty("MIN_OCCURENCE_COUPLE"));;
+		ExtractSFAndRedirections.MAX_PAIR_COUNTS_MB=Integer.parseInt(prop.getProperty("MAX_PAIR_COUNTS_MB", "0"));
 		ExtractSFAndRedirections.LANGUAGE=language;
 		
 		/** extract all the surface forms, URI and redirections in the dump */
-		ExtractSFAndRedirections.extractAllSurfaceFormsAndRedirection(dump_file, 
+		boolean stored=ExtractSFAndRedirections.extractAllSurfaceFormsAndRedirection(dump_file, 
 				output_folder+"pairCounts_"+language, 
 				tmp_folder+"tmp_redirections_"+language, 
 				output_folder+"uriCounts_"+language, 
-				tmp_folder+"tmp_surface_form_counts_"+language);
+				tmp_folder+"tmp_surface_form_counts_"+language,
+				use_paragraph_store ? paragraph_store : null);
+		
+		/** the input of the next passes: the store only if it was written in full */
+		use_paragraph_store=stored;
+		String input_file=use_paragraph_store ? paragraph_store : dump_file;
 		
 		ExtractAllNGrams.LOCALE=prop.getProperty("LOCALE");
 		ExtractAllNGrams.LANGUAGE=language;
+		ExtractAllNGrams.MAX_NB_TOKEN=Integer.parseInt(prop.getProperty("MAX_NB_TOKEN_SF"));
+		ExtractAllNGrams.USE_AUTOMATON=Boolean.parseBoolean(prop.getProperty("ngram_automaton", "false"));
 		/** extract the ngrams: compute the number of time a surface form is a link compared to the number of time it 
 		 *  is just a word  */
-		ExtractAllNGrams.extractAllNGrams(dump_file,
+		ExtractAllNGrams.extractAllNGrams(input_file, use_paragraph_store,
 				tmp_folder+"tmp_surface_form_counts_"+language, 
 				output_folder+"sfAndTotalCounts_"+language);
 		
@@ -77,7 +110,7 @@ public class Launcher {
 		ExtractContextualToken.ANAYZER_NAME=lucene_analyzer;
 		ExtractContextualToken.MIN_NB_CONTEXTS=Integer.parseInt(prop.getProperty("MIN_NB_CONTEXTS"));
 		
-		ExtractContextualToken.extractContextualToken(dump_file,
+		ExtractContextualToken.extractContextualToken(input_file, use_paragraph_store,
 				tmp_folder,
 				path_to_stopwords,
 				output_folder+"tokenCounts_"+language,
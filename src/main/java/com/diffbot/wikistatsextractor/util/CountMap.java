@@ -0,0 +1,130 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts objects: a hash map from keys to primitive ints (open addressing,
+ * linear probing), so that an increment neither allocates nor boxes.
+ *
+ * It is not thread safe: each worker counts in its own CountMap, and the
+ * maps are merged with addAll once the workers are done. The counts are then
+ * exact, where a get followed by a put on a shared ConcurrentHashMap loses
+ * the increments of the threads that update the same key at the same time.
+ *
+ * The keys are iterated through their slots:
+ *
+ * <pre>
+ * for (int slot = 0; slot < map.capacity(); slot++)
+ * 	if (map.keyAt(slot) != null)
+ * 		... map.keyAt(slot), map.countAt(slot)
+ * </pre>
+ *
+ * @author sam
+ *
+ */
+public class CountMap<K> {
+	private Object[] keys;
+	private int[] counts;
+	private int size = 0;
+	/** the table is grown when size reaches it */
+	private int max_size;
+
+	public CountMap() {
+		this(1024);
+	}
+
+	public CountMap(int expected_size) {
+		int capacity = 16;
+		while (capacity < 2 * expected_size)
+			capacity <<= 1;
+		keys = new Object[capacity];
+		counts = new int[capacity];
+		max_size = capacity / 2;
+	}
+
+	public void increment(K key) {
+		add(key, 1);
+	}
+
+	public void add(K key, int count) {
+		int slot = slotOf(key);
+		if (keys[slot] == null) {
+			keys[slot] = key;
+			size++;
+			counts[slot] = count;
+			if (size >= max_size)
+				grow();
+		} else {
+			counts[slot] += count;
+		}
+	}
+
+	/** 0 if the key was never counted */
+	public int get(K key) {
+		int slot = slotOf(key);
+		return keys[slot] == null ? 0 : counts[slot];
+	}
+
+	/** add the counts of other to this one */
+	@SuppressWarnings("unchecked")
+	public void addAll(CountMap<K> other) {
+		for (int slot = 0; slot < other.keys.length; slot++) {
+			if (other.keys[slot] != null)
+				add((K) other.keys[slot], other.counts[slot]);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return keys.length;
+	}
+
+	/** the key in that slot, null if the slot is empty */
+	@SuppressWarnings("unchecked")
+	public K keyAt(int slot) {
+		return (K) keys[slot];
+	}
+
+	public int countAt(int slot) {
+		return counts[slot];
+	}
+
+	public void clear() {
+		Arrays.fill(keys, null);
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+
+	/** the slot of key, or the empty slot where it would go */
+	private int slotOf(Object key) {
+		int mask = keys.length - 1;
+		int h = key.hashCode();
+		/** spread the bits, the low ones of a String hash are not that random */
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		int slot = h & mask;
+		while (keys[slot] != null && !keys[slot].equals(key))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void grow() {
+		Object[] old_keys = keys;
+		int[] old_counts = counts;
+		keys = new Object[2 * old_keys.length];
+		counts = new int[2 * old_keys.length];
+		max_size = keys.length / 2;
+		for (int slot = 0; slot < old_keys.length; slot++) {
+			if (old_keys[slot] != null) {
+				int new_slot = slotOf(old_keys[slot]);
+				keys[new_slot] = old_keys[slot];
+				counts[new_slot] = old_counts[slot];
+			}
+		}
+	}
+
+}
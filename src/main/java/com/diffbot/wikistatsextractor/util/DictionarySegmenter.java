@@ -0,0 +1,64 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * A WordSegmenter for chinese, japanese or thai: forward maximum matching on
+ * a list of words. The word that starts at a position is the longest word of
+ * the list found there, or the single char if there is none.
+ *
+ * The words are in a SurfaceFormTrie, so finding the longest one is a single
+ * walk down from the root, that stops as soon as the text leaves the trie.
+ *
+ * @author sam
+ *
+ */
+public class DictionarySegmenter implements WordSegmenter {
+	private final SurfaceFormTrie trie;
+
+	public DictionarySegmenter(SurfaceFormDictionary words) {
+		this.trie = new SurfaceFormTrie(words);
+	}
+
+	/**
+	 * the words of a UTF-8 file, one per line. Only the first field of a line
+	 * is read (a line can be "word frequency tag"), and the lines starting by #
+	 * are skipped.
+	 */
+	public static DictionarySegmenter load(String path_to_words) throws IOException {
+		SurfaceFormDictionary.Builder builder = new SurfaceFormDictionary.Builder(500000);
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(new File(path_to_words)), "UTF8"), 16 * 1024);
+		String line = br.readLine();
+		while (line != null) {
+			int end = 0;
+			while (end < line.length() && !Character.isWhitespace(line.charAt(end)))
+				end++;
+			if (end > 0 && line.charAt(0) != '#')
+				builder.add(line.substring(0, end));
+			line = br.readLine();
+		}
+		br.close();
+		SurfaceFormDictionary words = builder.build();
+		System.out.println(words.size() + " words loaded from " + path_to_words);
+		return new DictionarySegmenter(words);
+	}
+
+	@Override
+	public int nextWord(CharSequence s, int start, int end) {
+		int word_end = start + 1;
+		int node = SurfaceFormTrie.ROOT;
+		for (int i = start; i < end; i++) {
+			node = trie.child(node, s.charAt(i));
+			if (node == -1)
+				break;
+			if (trie.getId(node) != -1)
+				word_end = i + 1;
+		}
+		return word_end;
+	}
+
+}
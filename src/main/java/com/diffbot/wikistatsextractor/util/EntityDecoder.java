@@ -0,0 +1,230 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.util.Arrays;
+
+/**
+ * Decodes the XML/HTML entities of the dumps in one forward scan: the named
+ * entities of HTML 4 (and &apos;), the numeric ones (&#160; &#x2013;), and
+ * the ones escaped twice (&amp;nbsp;), as the wikitext entities are in the
+ * XML of the dump. The names are looked for in a trie, so an '&' costs a few
+ * comparisons whatever the number of entities.
+ *
+ * A named entity has to end with a ';', except the ones of Latin-1 (&amp
+ * &copy &eacute...) that browsers also accept without it. As in the text of
+ * a page in a browser, when a name does not match, the longest of those that
+ * starts it is decoded: &copyx is "©x", &notit; is "¬it;". The numeric
+ * entities may also miss their ';' (&#039). A no-break space is decoded as a simple space, as the
+ * tokenizers expect it.
+ *
+ * @author sam
+ *
+ */
+public class EntityDecoder {
+
+	/** name, code point */
+	private static final Object[][] ENTITIES = {
+			{ "quot", 34 }, { "amp", 38 }, { "apos", 39 }, { "lt", 60 }, { "gt", 62 }, { "nbsp", 160 },
+			{ "iexcl", 161 }, { "cent", 162 }, { "pound", 163 }, { "curren", 164 }, { "yen", 165 },
+			{ "brvbar", 166 }, { "sect", 167 }, { "uml", 168 }, { "copy", 169 }, { "ordf", 170 },
+			{ "laquo", 171 }, { "not", 172 }, { "shy", 173 }, { "reg", 174 }, { "macr", 175 },
+			{ "deg", 176 }, { "plusmn", 177 }, { "sup2", 178 }, { "sup3", 179 }, { "acute", 180 },
+			{ "micro", 181 }, { "para", 182 }, { "middot", 183 }, { "cedil", 184 }, { "sup1", 185 },
+			{ "ordm", 186 }, { "raquo", 187 }, { "frac14", 188 }, { "frac12", 189 }, { "frac34", 190 },
+			{ "iquest", 191 }, { "Agrave", 192 }, { "Aacute", 193 }, { "Acirc", 194 }, { "Atilde", 195 },
+			{ "Auml", 196 }, { "Aring", 197 }, { "AElig", 198 }, { "Ccedil", 199 }, { "Egrave", 200 },
+			{ "Eacute", 201 }, { "Ecirc", 202 }, { "Euml", 203 }, { "Igrave", 204 }, { "Iacute", 205 },
+			{ "Icirc", 206 }, { "Iuml", 207 }, { "ETH", 208 }, { "Ntilde", 209 }, { "Ograve", 210 },
+			{ "Oacute", 211 }, { "Ocirc", 212 }, { "Otilde", 213 }, { "Ouml", 214 }, { "times", 215 },
+			{ "Oslash", 216 }, { "Ugrave", 217 }, { "Uacute", 218 }, { "Ucirc", 219 }, { "Uuml", 220 },
+			{ "Yacute", 221 }, { "THORN", 222 }, { "szlig", 223 }, { "agrave", 224 }, { "aacute", 225 },
+			{ "acirc", 226 }, { "atilde", 227 }, { "auml", 228 }, { "aring", 229 }, { "aelig", 230 },
+			{ "ccedil", 231 }, { "egrave", 232 }, { "eacute", 233 }, { "ecirc", 234 }, { "euml", 235 },
+			{ "igrave", 236 }, { "iacute", 237 }, { "icirc", 238 }, { "iuml", 239 }, { "eth", 240 },
+			{ "ntilde", 241 }, { "ograve", 242 }, { "oacute", 243 }, { "ocirc", 244 }, { "otilde", 245 },
+			{ "ouml", 246 }, { "divide", 247 }, { "oslash", 248 }, { "ugrave", 249 }, { "uacute", 250 },
+			{ "ucirc", 251 }, { "uuml", 252 }, { "yacute", 253 }, { "thorn", 254 }, { "yuml", 255 },
+			{ "OElig", 338 }, { "oelig", 339 }, { "Scaron", 352 }, { "scaron", 353 }, { "Yuml", 376 },
+			{ "fnof", 402 }, { "circ", 710 }, { "tilde", 732 }, { "Alpha", 913 }, { "Beta", 914 },
+			{ "Gamma", 915 }, { "Delta", 916 }, { "Epsilon", 917 }, { "Zeta", 918 }, { "Eta", 919 },
+			{ "Theta", 920 }, { "Iota", 921 }, { "Kappa", 922 }, { "Lambda", 923 }, { "Mu", 924 },
+			{ "Nu", 925 }, { "Xi", 926 }, { "Omicron", 927 }, { "Pi", 928 }, { "Rho", 929 },
+			{ "Sigma", 931 }, { "Tau", 932 }, { "Upsilon", 933 }, { "Phi", 934 }, { "Chi", 935 },
+			{ "Psi", 936 }, { "Omega", 937 }, { "alpha", 945 }, { "beta", 946 }, { "gamma", 947 },
+			{ "delta", 948 }, { "epsilon", 949 }, { "zeta", 950 }, { "eta", 951 }, { "theta", 952 },
+			{ "iota", 953 }, { "kappa", 954 }, { "lambda", 955 }, { "mu", 956 }, { "nu", 957 },
+			{ "xi", 958 }, { "omicron", 959 }, { "pi", 960 }, { "rho", 961 }, { "sigmaf", 962 },
+			{ "sigma", 963 }, { "tau", 964 }, { "upsilon", 965 }, { "phi", 966 }, { "chi", 967 },
+			{ "psi", 968 }, { "omega", 969 }, { "thetasym", 977 }, { "upsih", 978 }, { "piv", 982 },
+			{ "ensp", 8194 }, { "emsp", 8195 }, { "thinsp", 8201 }, { "zwnj", 8204 }, { "zwj", 8205 },
+			{ "lrm", 8206 }, { "rlm", 8207 }, { "ndash", 8211 }, { "mdash", 8212 }, { "lsquo", 8216 },
+			{ "rsquo", 8217 }, { "sbquo", 8218 }, { "ldquo", 8220 }, { "rdquo", 8221 }, { "bdquo", 8222 },
+			{ "dagger", 8224 }, { "Dagger", 8225 }, { "bull", 8226 }, { "hellip", 8230 },
+			{ "permil", 8240 }, { "prime", 8242 }, { "Prime", 8243 }, { "lsaquo", 8249 },
+			{ "rsaquo", 8250 }, { "oline", 8254 }, { "frasl", 8260 }, { "euro", 8364 }, { "image", 8465 },
+			{ "weierp", 8472 }, { "real", 8476 }, { "trade", 8482 }, { "alefsym", 8501 }, { "larr", 8592 },
+			{ "uarr", 8593 }, { "rarr", 8594 }, { "darr", 8595 }, { "harr", 8596 }, { "crarr", 8629 },
+			{ "lArr", 8656 }, { "uArr", 8657 }, { "rArr", 8658 }, { "dArr", 8659 }, { "hArr", 8660 },
+			{ "forall", 8704 }, { "part", 8706 }, { "exist", 8707 }, { "empty", 8709 }, { "nabla", 8711 },
+			{ "isin", 8712 }, { "notin", 8713 }, { "ni", 8715 }, { "prod", 8719 }, { "sum", 8721 },
+			{ "minus", 8722 }, { "lowast", 8727 }, { "radic", 8730 }, { "prop", 8733 }, { "infin", 8734 },
+			{ "ang", 8736 }, { "and", 8743 }, { "or", 8744 }, { "cap", 8745 }, { "cup", 8746 },
+			{ "int", 8747 }, { "there4", 8756 }, { "sim", 8764 }, { "cong", 8773 }, { "asymp", 8776 },
+			{ "ne", 8800 }, { "equiv", 8801 }, { "le", 8804 }, { "ge", 8805 }, { "sub", 8834 },
+			{ "sup", 8835 }, { "nsub", 8836 }, { "sube", 8838 }, { "supe", 8839 }, { "oplus", 8853 },
+			{ "otimes", 8855 }, { "perp", 8869 }, { "sdot", 8901 }, { "lceil", 8968 }, { "rceil", 8969 },
+			{ "lfloor", 8970 }, { "rfloor", 8971 }, { "lang", 9001 }, { "rang", 9002 }, { "loz", 9674 },
+			{ "spades", 9824 }, { "clubs", 9827 }, { "hearts", 9829 }, { "diams", 9830 }
+	};
+
+	/**
+	 * the trie of the names: the children of node n are labels[n][k] ->
+	 * children[n][k], and codes[n] is the code point of the name that ends at
+	 * n (-1 if none). The root is the node 0.
+	 */
+	private static char[][] labels;
+	private static int[][] children;
+	private static int[] codes;
+
+	static {
+		int max_nodes = 1;
+		for (Object[] entity : ENTITIES)
+			max_nodes += ((String) entity[0]).length();
+		labels = new char[max_nodes][0];
+		children = new int[max_nodes][0];
+		codes = new int[max_nodes];
+		Arrays.fill(codes, -1);
+		int nb_nodes = 1;
+		for (Object[] entity : ENTITIES) {
+			String name = (String) entity[0];
+			int node = 0;
+			for (int i = 0; i < name.length(); i++) {
+				int child = child(node, name.charAt(i));
+				if (child == -1) {
+					child = nb_nodes++;
+					int k = labels[node].length;
+					labels[node] = Arrays.copyOf(labels[node], k + 1);
+					children[node] = Arrays.copyOf(children[node], k + 1);
+					labels[node][k] = name.charAt(i);
+					children[node][k] = child;
+				}
+				node = child;
+			}
+			codes[node] = (Integer) entity[1];
+		}
+	}
+
+	private static int child(int node, char c) {
+		char[] node_labels = labels[node];
+		for (int k = 0; k < node_labels.length; k++) {
+			if (node_labels[k] == c)
+				return children[node][k];
+		}
+		return -1;
+	}
+
+	/**
+	 * decode the entity that starts at s[start] (an '&') and ends before end.
+	 * What it stands for is appended to out, unless out is null. Return the
+	 * index that follows the entity, or -1 (and nothing is appended) if there
+	 * is no entity at start.
+	 */
+	public static int decode(CharSequence s, int start, int end, StringBuilder out) {
+		if (start >= end || s.charAt(start) != '&')
+			return -1;
+		/** &amp;name; is an entity escaped twice */
+		if (start + 5 <= end && s.charAt(start + 1) == 'a' && s.charAt(start + 2) == 'm' && s.charAt(start + 3) == 'p'
+				&& s.charAt(start + 4) == ';') {
+			int after = decodeName(s, start + 5, end, out);
+			if (after != -1)
+				return after;
+			if (out != null)
+				out.append('&');
+			return start + 5;
+		}
+		return decodeName(s, start + 1, end, out);
+	}
+
+	/** append s[start, end[ to out, the entities decoded */
+	public static void append(CharSequence s, int start, int end, StringBuilder out) {
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '&') {
+				int after = decode(s, i, end, out);
+				if (after != -1) {
+					i = after - 1;
+					continue;
+				}
+			}
+			out.append(c);
+		}
+	}
+
+	/** decode the entity whose name starts at s[start], just after its '&' */
+	private static int decodeName(CharSequence s, int start, int end, StringBuilder out) {
+		if (start >= end)
+			return -1;
+		if (s.charAt(start) == '#')
+			return decodeNumber(s, start + 1, end, out);
+
+		int node = 0;
+		int i = start;
+		/** the last name of Latin-1 on the way, that can be decoded without its ';' */
+		int legacy_code = -1;
+		int legacy_end = -1;
+		while (i < end) {
+			int child = child(node, s.charAt(i));
+			if (child == -1)
+				break;
+			node = child;
+			i++;
+			if (codes[node] != -1 && codes[node] <= 255) {
+				legacy_code = codes[node];
+				legacy_end = i;
+			}
+		}
+		if (codes[node] != -1 && i < end && s.charAt(i) == ';') {
+			appendCodePoint(out, codes[node]);
+			return i + 1;
+		}
+		if (legacy_code == -1)
+			return -1;
+		appendCodePoint(out, legacy_code);
+		return legacy_end;
+	}
+
+	/** &#ddd; or &#xhhh;, start being just after the '#' */
+	private static int decodeNumber(CharSequence s, int start, int end, StringBuilder out) {
+		int radix = 10;
+		int i = start;
+		if (i < end && (s.charAt(i) == 'x' || s.charAt(i) == 'X')) {
+			radix = 16;
+			i++;
+		}
+		int digits_start = i;
+		int code = 0;
+		while (i < end && i - digits_start < 8) {
+			int digit = Character.digit(s.charAt(i), radix);
+			if (digit == -1)
+				break;
+			code = code * radix + digit;
+			i++;
+		}
+		if (i == digits_start || code == 0 || code > Character.MAX_CODE_POINT
+				|| (code >= Character.MIN_SURROGATE && code <= Character.MAX_SURROGATE))
+			return -1;
+		if (i < end && s.charAt(i) == ';')
+			i++;
+		appendCodePoint(out, code);
+		return i;
+	}
+
+	private static void appendCodePoint(StringBuilder out, int code) {
+		if (out == null)
+			return;
+		if (code == 160)
+			out.append(' ');
+		else
+			out.appendCodePoint(code);
+	}
+
+}
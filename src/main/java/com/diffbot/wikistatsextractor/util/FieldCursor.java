@@ -0,0 +1,130 @@
+package com.diffbot.wikistatsextractor.util;
+
+/**
+ * Walks the fields of a line separated by ",,", like Util.fastSplit, but
+ * without copying them: each field is a range [start(), end()[ of the line,
+ * that can be compared or parsed as an int in place. The line itself can be
+ * a range of a bigger CharSequence (a page made of several lines for
+ * instance).
+ *
+ * The fields are the same as the ones of fastSplit: a line of 2 chars or
+ * less is one field, and a line that ends with ",," has no empty last field.
+ *
+ * Usage:
+ *
+ * <pre>
+ * cursor.reset(page, line_start, line_end);
+ * while (cursor.next())
+ * 	sum += cursor.parseInt(0);
+ * </pre>
+ *
+ * An instance is meant to be reused, it is not thread safe.
+ *
+ * @author sam
+ *
+ */
+public class FieldCursor {
+	private CharSequence s;
+	private int line_start, line_end;
+	/** where the next field starts, -1 if there is none */
+	private int next_start;
+	private int start, end;
+
+	public FieldCursor reset(CharSequence s, int line_start, int line_end) {
+		this.s = s;
+		this.line_start = line_start;
+		this.line_end = line_end;
+		this.next_start = line_start;
+		this.start = -1;
+		this.end = -1;
+		return this;
+	}
+
+	public FieldCursor reset(CharSequence s) {
+		return reset(s, 0, s.length());
+	}
+
+	/** move to the next field. false if there is no more */
+	public boolean next() {
+		if (next_start == -1)
+			return false;
+		start = next_start;
+		if (line_end - line_start <= 2) {
+			end = line_end;
+			next_start = -1;
+			return true;
+		}
+		for (int i = start; i < line_end - 1; i++) {
+			if (s.charAt(i) == ',' && s.charAt(i + 1) == ',') {
+				end = i;
+				next_start = i + 2;
+				return true;
+			}
+		}
+		/** the last field, unless the line ends with ",," */
+		next_start = -1;
+		if (s.charAt(line_end - 1) == ',' && s.charAt(line_end - 2) == ',')
+			return false;
+		end = line_end;
+		return true;
+	}
+
+	/** the number of fields from the current position (the current one excluded) to the end of the line */
+	public int countRemaining() {
+		int saved_next = next_start, saved_start = start, saved_end = end;
+		int count = 0;
+		while (next())
+			count++;
+		next_start = saved_next;
+		start = saved_start;
+		end = saved_end;
+		return count;
+	}
+
+	public int start() {
+		return start;
+	}
+
+	public int end() {
+		return end;
+	}
+
+	public int length() {
+		return end - start;
+	}
+
+	/** a copy of the current field */
+	public String getString() {
+		return s.subSequence(start, end).toString();
+	}
+
+	/**
+	 * the current field as an int, or if_invalid if it is not one (same
+	 * syntax as Integer.parseInt)
+	 */
+	public int parseInt(int if_invalid) {
+		int i = start;
+		if (i == end)
+			return if_invalid;
+		boolean negative = false;
+		char first = s.charAt(i);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			i++;
+			if (i == end)
+				return if_invalid;
+		}
+		long max = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+		long result = 0;
+		for (; i < end; i++) {
+			int digit = Character.digit(s.charAt(i), 10);
+			if (digit == -1)
+				return if_invalid;
+			result = result * 10 + digit;
+			if (result > max)
+				return if_invalid;
+		}
+		return (int) (negative ? -result : result);
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts longs, like CountMap counts objects: a hash map from long keys to int
+ * counts (open addressing, linear probing), without any object per entry. A
+ * key is typically two int ids packed with pack(), so an entry costs 12 bytes
+ * (24 with the free slots), where a map of pairs of Strings costs a wrapper,
+ * two Strings and a boxed Integer per entry.
+ *
+ * Any key can be counted but EMPTY (-1), which marks the free slots. It is not
+ * thread safe. The keys are iterated through their slots:
+ *
+ * <pre>
+ * for (int slot = 0; slot < map.capacity(); slot++)
+ * 	if (map.keyAt(slot) != LongCountMap.EMPTY)
+ * 		... map.keyAt(slot), map.countAt(slot)
+ * </pre>
+ *
+ * @author sam
+ *
+ */
+public class LongCountMap {
+	public static final long EMPTY = -1L;
+
+	private long[] keys;
+	private int[] counts;
+	private int size = 0;
+	/** the table is grown when size reaches it */
+	private int max_size;
+
+	public LongCountMap() {
+		this(1024);
+	}
+
+	public LongCountMap(int expected_size) {
+		int capacity = 16;
+		while (capacity < 2 * expected_size)
+			capacity <<= 1;
+		keys = new long[capacity];
+		counts = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		max_size = capacity / 2;
+	}
+
+	/** two non negative ints in a key, the first one in the high bits */
+	public static long pack(int high, int low) {
+		return ((long) high << 32) | (low & 0xffffffffL);
+	}
+
+	public static int high(long key) {
+		return (int) (key >>> 32);
+	}
+
+	public static int low(long key) {
+		return (int) key;
+	}
+
+	public void increment(long key) {
+		add(key, 1);
+	}
+
+	public void add(long key, int count) {
+		int slot = slotOf(key);
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			size++;
+			counts[slot] = count;
+			if (size >= max_size)
+				grow();
+		} else {
+			counts[slot] += count;
+		}
+	}
+
+	/** 0 if the key was never counted */
+	public int get(long key) {
+		int slot = slotOf(key);
+		return keys[slot] == EMPTY ? 0 : counts[slot];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return keys.length;
+	}
+
+	/** the memory taken by the arrays, in bytes */
+	public long sizeInBytes() {
+		return 12L * keys.length;
+	}
+
+	/** the key in that slot, EMPTY if the slot is free */
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	public int countAt(int slot) {
+		return counts[slot];
+	}
+
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+
+	/** the slot of key, or the free slot where it would go */
+	private int slotOf(long key) {
+		int mask = keys.length - 1;
+		/** spread the bits: with packed ids, the low ones are only those of the second id */
+		long h = key * 0x9e3779b97f4a7c15L;
+		int slot = (int) (h ^ (h >>> 32)) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void grow() {
+		long[] old_keys = keys;
+		int[] old_counts = counts;
+		keys = new long[2 * old_keys.length];
+		counts = new int[2 * old_keys.length];
+		Arrays.fill(keys, EMPTY);
+		max_size = keys.length / 2;
+		for (int slot = 0; slot < old_keys.length; slot++) {
+			if (old_keys[slot] != EMPTY) {
+				int new_slot = slotOf(old_keys[slot]);
+				keys[new_slot] = old_keys[slot];
+				counts[new_slot] = old_counts[slot];
+			}
+		}
+	}
+
+}
@@ -0,0 +1,156 @@
+package com.diffbot.wikistatsextractor.util;
+
+/**
+ * Where things are in a wikipedia page (the xml between &lt;page&gt; and
+ * &lt;/page&gt;): title, namespace, id, model, redirection and text. The page
+ * is walked only once, from the start to the end of the text, and nothing is
+ * allocated: only offsets are stored. A worker should keep one instance and
+ * call scan() for each page.
+ *
+ * An offset is -1 when the corresponding tag was not found.
+ *
+ * @author sam
+ *
+ */
+public class PageHeader {
+	private String page;
+
+	/** content of &lt;title&gt; */
+	public int title_start, title_end;
+	/** content of the first &lt;id&gt;, the one of the page */
+	public long id;
+	/** content of &lt;ns&gt; */
+	public int ns;
+	public boolean has_ns;
+	/** content of &lt;model&gt; */
+	public int model_start, model_end;
+	/** title attribute of &lt;redirect title="..." /&gt; */
+	public int redirect_start, redirect_end;
+	/** content of &lt;text ...&gt;, still escaped */
+	public int text_start, text_end;
+
+	/** find everything in the page, return this */
+	public PageHeader scan(String page) {
+		this.page = page;
+		title_start = title_end = -1;
+		model_start = model_end = -1;
+		redirect_start = redirect_end = -1;
+		text_start = text_end = -1;
+		id = -1;
+		ns = 0;
+		has_ns = false;
+
+		int len = page.length();
+		int i = page.indexOf('<');
+		while (i != -1 && i < len - 1) {
+			char c_1 = page.charAt(i + 1);
+			if (c_1 == 't') {
+				if (title_start == -1 && page.startsWith("<title>", i)) {
+					title_start = i + 7;
+					title_end = page.indexOf('<', title_start);
+					if (title_end == -1)
+						title_end = len;
+					i = title_end;
+					continue;
+				}
+				if (page.startsWith("<text", i)) {
+					int end_tag = page.indexOf('>', i);
+					if (end_tag == -1)
+						break;
+					text_start = end_tag + 1;
+					if (page.charAt(end_tag - 1) == '/') {
+						// <text ... /> : no text at all
+						text_end = text_start;
+					} else {
+						// the text is escaped, so its first '<' is the one of </text>
+						text_end = page.indexOf('<', text_start);
+						if (text_end == -1)
+							text_end = len;
+					}
+					break;
+				}
+			} else if (c_1 == 'n') {
+				if (!has_ns && page.startsWith("<ns>", i)) {
+					int j = i + 4;
+					boolean negative = j < len && page.charAt(j) == '-';
+					if (negative)
+						j++;
+					while (j < len && page.charAt(j) >= '0' && page.charAt(j) <= '9') {
+						ns = ns * 10 + page.charAt(j) - '0';
+						j++;
+					}
+					if (negative)
+						ns = -ns;
+					has_ns = true;
+					i = page.indexOf('<', j);
+					continue;
+				}
+			} else if (c_1 == 'i') {
+				if (id == -1 && page.startsWith("<id>", i)) {
+					int j = i + 4;
+					long value = 0;
+					while (j < len && page.charAt(j) >= '0' && page.charAt(j) <= '9') {
+						value = value * 10 + page.charAt(j) - '0';
+						j++;
+					}
+					id = value;
+					i = page.indexOf('<', j);
+					continue;
+				}
+			} else if (c_1 == 'm') {
+				if (model_start == -1 && page.startsWith("<model>", i)) {
+					model_start = i + 7;
+					model_end = page.indexOf('<', model_start);
+					if (model_end == -1)
+						model_end = len;
+					i = model_end;
+					continue;
+				}
+			} else if (c_1 == 'r') {
+				if (redirect_start == -1 && page.startsWith("<redirect title=\"", i)) {
+					redirect_start = i + 17;
+					redirect_end = page.indexOf('"', redirect_start);
+					if (redirect_end == -1)
+						redirect_end = redirect_start;
+					i = page.indexOf('<', redirect_end);
+					continue;
+				}
+			}
+			i = page.indexOf('<', i + 1);
+		}
+		return this;
+	}
+
+	/** the page given to the last call to scan() */
+	public String getPage() {
+		return page;
+	}
+
+	/** the unescaped title, null if there is none */
+	public String getTitle() {
+		if (title_start == -1)
+			return null;
+		return Util.unescapeXML(page.substring(title_start, title_end));
+	}
+
+	/** return true if the model of the page is "wikitext" */
+	public boolean isWikiText() {
+		return model_start != -1 && page.startsWith("wikitext", model_start);
+	}
+
+	public boolean isRedirect() {
+		return redirect_start != -1;
+	}
+
+	/** the unescaped title of the page we are redirected to, null if it is not a redirection */
+	public String getRedirect() {
+		if (redirect_start == -1)
+			return null;
+		return Util.unescapeXML(page.substring(redirect_start, redirect_end));
+	}
+
+	public boolean hasText() {
+		return text_start != -1;
+	}
+
+}
@@ -0,0 +1,308 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts of pairs (uri, surface form) spilled to disk, when they do not fit in
+ * memory. A worker that counts too many pairs writes them as a run: a file of
+ * its pairs sorted by uri then surface form, and starts again from scratch.
+ * Once all is counted, the runs are merged (k-way): the counts of a pair in
+ * the different runs are summed, and the pairs are read back in order, one
+ * run record at a time. At most MAX_FAN_IN runs are read at the same time:
+ * if there are more, they are first merged by groups in bigger runs.
+ *
+ * A record of a run is the uri (its length in UTF-8 bytes, -1 if it is the
+ * same as the previous record's, then the bytes), the surface form (length and
+ * bytes) and the count, as written by a DataOutputStream.
+ *
+ * Several workers can write runs at the same time, each one in its own file.
+ *
+ * @author sam
+ *
+ */
+public class PairCountRuns {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** the max number of runs merged at the same time (a buffer of 64KB each) */
+	public static int MAX_FAN_IN = 64;
+
+	/** the runs are path_prefix0, path_prefix1... */
+	private final String path_prefix;
+	private final AtomicInteger nb_runs = new AtomicInteger(0);
+	private final ArrayList<String> paths = new ArrayList<String>();
+
+	public PairCountRuns(String path_prefix) {
+		this.path_prefix = path_prefix;
+	}
+
+	public String getPathPrefix() {
+		return path_prefix;
+	}
+
+	public int size() {
+		synchronized (paths) {
+			return paths.size();
+		}
+	}
+
+	/**
+	 * write the pairs counted with ids of uris and surface_forms (packed as
+	 * LongCountMap.pack(uri, surface form)) as a new run
+	 */
+	public void write(final SurfaceFormDictionary.Builder uris, final SurfaceFormDictionary.Builder surface_forms, LongCountMap pair_counts)
+			throws IOException {
+		if (pair_counts.size() == 0)
+			return;
+		/** the rank of each id once the Strings are sorted, so that the pairs can be sorted as longs */
+		int[] sorted_uris = sortedIds(uris);
+		int[] sorted_surface_forms = sortedIds(surface_forms);
+		int[] uri_ranks = ranks(sorted_uris);
+		int[] surface_form_ranks = ranks(sorted_surface_forms);
+		long[] pairs = new long[pair_counts.size()];
+		int nb_pairs = 0;
+		for (int slot = 0; slot < pair_counts.capacity(); slot++) {
+			long key = pair_counts.keyAt(slot);
+			if (key != LongCountMap.EMPTY)
+				pairs[nb_pairs++] = LongCountMap.pack(uri_ranks[LongCountMap.high(key)], surface_form_ranks[LongCountMap.low(key)]);
+		}
+		uri_ranks = null;
+		surface_form_ranks = null;
+		Arrays.sort(pairs);
+
+		RunWriter out = new RunWriter(path_prefix + nb_runs.getAndIncrement());
+		/** known as soon as it exists, so that delete() removes it even if it is not complete */
+		synchronized (paths) {
+			paths.add(out.path);
+		}
+		String uri = null;
+		int last_uri = -1;
+		for (long pair : pairs) {
+			int uri_id = sorted_uris[LongCountMap.high(pair)];
+			int surface_form = sorted_surface_forms[LongCountMap.low(pair)];
+			/** the same String for the same uri, the writer only compares them */
+			if (uri_id != last_uri) {
+				uri = uris.getString(uri_id);
+				last_uri = uri_id;
+			}
+			out.write(uri, surface_forms.getString(surface_form), pair_counts.get(LongCountMap.pack(uri_id, surface_form)));
+		}
+		out.close();
+	}
+
+	/**
+	 * merge all the runs: the Merger gives each pair once, in order, with the
+	 * sum of its counts, and skips the ones whose sum is below min_count. Not
+	 * to be called while runs are written.
+	 */
+	public Merger merge(int min_count) throws IOException {
+		synchronized (paths) {
+			while (paths.size() > MAX_FAN_IN) {
+				/** the first runs, merged in a new one at the end of the list */
+				ArrayList<String> group = new ArrayList<String>(paths.subList(0, MAX_FAN_IN));
+				paths.subList(0, MAX_FAN_IN).clear();
+				Merger merger = new Merger(group, 1);
+				RunWriter out = new RunWriter(path_prefix + nb_runs.getAndIncrement());
+				while (merger.next())
+					out.write(merger.getUri(), merger.getSurfaceForm(), merger.getCount());
+				out.close();
+				for (String path : group)
+					new File(path).delete();
+				paths.add(out.path);
+			}
+			return new Merger(paths, min_count);
+		}
+	}
+
+	/** delete the files of the runs */
+	public void delete() {
+		synchronized (paths) {
+			for (String path : paths)
+				new File(path).delete();
+			paths.clear();
+		}
+	}
+
+	public static class Merger {
+		private final PriorityQueue<RunReader> queue;
+		private final int min_count;
+		private String uri;
+		private String surface_form;
+		private int count;
+
+		Merger(ArrayList<String> paths, int min_count) throws IOException {
+			this.min_count = min_count;
+			queue = new PriorityQueue<RunReader>(Math.max(1, paths.size()), new Comparator<RunReader>() {
+				@Override
+				public int compare(RunReader r1, RunReader r2) {
+					return r1.compareTo(r2.uri, r2.surface_form);
+				}
+			});
+			for (String path : paths) {
+				RunReader reader = new RunReader(path);
+				if (reader.next())
+					queue.add(reader);
+			}
+		}
+
+		/** move to the next pair. false if there is no more */
+		public boolean next() throws IOException {
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				uri = reader.uri;
+				surface_form = reader.surface_form;
+				count = reader.count;
+				advance(reader);
+				while (!queue.isEmpty() && queue.peek().compareTo(uri, surface_form) == 0) {
+					reader = queue.poll();
+					count += reader.count;
+					advance(reader);
+				}
+				if (count >= min_count)
+					return true;
+			}
+			return false;
+		}
+
+		public String getUri() {
+			return uri;
+		}
+
+		public String getSurfaceForm() {
+			return surface_form;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		/** only needed if next() was not called until it returned false */
+		public void close() throws IOException {
+			while (!queue.isEmpty())
+				queue.poll().close();
+		}
+
+		private void advance(RunReader reader) throws IOException {
+			if (reader.next())
+				queue.add(reader);
+			else
+				reader.close();
+		}
+	}
+
+	/** writes the records of a run, in order */
+	private static class RunWriter {
+		final String path;
+		private final DataOutputStream out;
+		private String last_uri = null;
+
+		RunWriter(String path) throws IOException {
+			this.path = path;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(path)), 1024 * 1024));
+		}
+
+		void write(String uri, String surface_form, int count) throws IOException {
+			if (uri == last_uri || uri.equals(last_uri)) {
+				out.writeInt(-1);
+			} else {
+				writeString(out, uri);
+				last_uri = uri;
+			}
+			writeString(out, surface_form);
+			out.writeInt(count);
+		}
+
+		void close() throws IOException {
+			out.close();
+		}
+
+		private static void writeString(DataOutputStream out, String s) throws IOException {
+			byte[] bytes = s.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/** reads the records of a run one by one */
+	private static class RunReader {
+		private final DataInputStream in;
+		private byte[] buffer = new byte[256];
+		String uri = null;
+		String surface_form;
+		int count;
+
+		RunReader(String path) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(path)), 64 * 1024));
+		}
+
+		/** read the next record. false at the end of the run */
+		boolean next() throws IOException {
+			int length;
+			try {
+				length = in.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			/** the same uri is kept as the same String */
+			if (length != -1)
+				uri = readString(length);
+			surface_form = readString(in.readInt());
+			count = in.readInt();
+			return true;
+		}
+
+		int compareTo(String other_uri, String other_surface_form) {
+			int c = uri.compareTo(other_uri);
+			return c != 0 ? c : surface_form.compareTo(other_surface_form);
+		}
+
+		void close() throws IOException {
+			in.close();
+		}
+
+		private String readString(int length) throws IOException {
+			if (length > buffer.length)
+				buffer = new byte[Math.max(length, 2 * buffer.length)];
+			in.readFully(buffer, 0, length);
+			return new String(buffer, 0, length, UTF8);
+		}
+	}
+
+	/** the ids of the entries of a builder, sorted like their Strings */
+	private static int[] sortedIds(final SurfaceFormDictionary.Builder builder) {
+		Integer[] sorted = new Integer[builder.size()];
+		for (int id = 0; id < sorted.length; id++)
+			sorted[id] = id;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer id1, Integer id2) {
+				return builder.compare(id1, id2);
+			}
+		});
+		int[] ids = new int[sorted.length];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = sorted[i];
+		return ids;
+	}
+
+	/** the rank of each id in sorted_ids */
+	private static int[] ranks(int[] sorted_ids) {
+		int[] ranks = new int[sorted_ids.length];
+		for (int rank = 0; rank < sorted_ids.length; rank++)
+			ranks[sorted_ids[rank]] = rank;
+		return ranks;
+	}
+
+}
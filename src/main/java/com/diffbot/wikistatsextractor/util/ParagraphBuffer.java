@@ -0,0 +1,203 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The paragraphs of a page, as WikiTextCleaner gives them. All the clean text
+ * of the page is in one StringBuilder, and a paragraph is a range of it. The
+ * links replaced by their text are ranges as well, with the uri they point
+ * to. A link nested in another one that is not in the text (the caption of a
+ * [[File:...]] for instance) has no range, but keeps its surface form.
+ *
+ * A worker keeps one and gives it to the cleaner for each page: once the
+ * arrays have grown to the size of the biggest pages, cleaning a page does not
+ * allocate anything but the uris. Not thread safe.
+ *
+ * @author sam
+ *
+ */
+public class ParagraphBuffer {
+	/**
+	 * the text of all the paragraphs, links included, without any markup but
+	 * the bold and italics inside the links
+	 */
+	StringBuilder text = new StringBuilder(16 * 1024);
+
+	int nb_paragraphs = 0;
+	int[] paragraph_starts = new int[64];
+	int[] paragraph_ends = new int[64];
+	/** the links of paragraph p are [first_links[p], first_links[p+1][ */
+	int[] first_links = new int[65];
+
+	int nb_links = 0;
+	/** offsets in text, -1 for the links that are not in the text */
+	int[] link_starts = new int[256];
+	int[] link_ends = new int[256];
+	String[] uris = new String[256];
+	/** only for the links that are not in the text */
+	String[] surface_forms = new String[256];
+
+	public void clear() {
+		text.setLength(0);
+		nb_paragraphs = 0;
+		Arrays.fill(uris, 0, nb_links, null);
+		Arrays.fill(surface_forms, 0, nb_links, null);
+		nb_links = 0;
+	}
+
+	public int size() {
+		return nb_paragraphs;
+	}
+
+	/** the text of all the paragraphs. Paragraph p is [getStart(p), getEnd(p)[ */
+	public CharSequence getText() {
+		return text;
+	}
+
+	public int getStart(int p) {
+		return paragraph_starts[p];
+	}
+
+	public int getEnd(int p) {
+		return paragraph_ends[p];
+	}
+
+	public int length(int p) {
+		return paragraph_ends[p] - paragraph_starts[p];
+	}
+
+	public String getParagraph(int p) {
+		return text.substring(paragraph_starts[p], paragraph_ends[p]);
+	}
+
+	/** the links of paragraph p are the indexes [getFirstLink(p), getEndLink(p)[ */
+	public int getFirstLink(int p) {
+		return first_links[p];
+	}
+
+	public int getEndLink(int p) {
+		return first_links[p + 1];
+	}
+
+	public boolean isInText(int link) {
+		return link_starts[link] != -1;
+	}
+
+	/** offsets in getText(), not in the paragraph */
+	public int getLinkStart(int link) {
+		return link_starts[link];
+	}
+
+	public int getLinkEnd(int link) {
+		return link_ends[link];
+	}
+
+	public String getUri(int link) {
+		return uris[link];
+	}
+
+	/** the text of the link, without the bold and italics that the text keeps */
+	public String getSurfaceForm(int link) {
+		if (link_starts[link] == -1)
+			return Util.removeBoldAndItalics(surface_forms[link]);
+		return Util.removeBoldAndItalics(text.substring(link_starts[link], link_ends[link]));
+	}
+
+	/**
+	 * the pairs uri/surface form of paragraph p that pass the restrictions of
+	 * getSurfaceFormsInString. If with_hidden_links, the links that are not in
+	 * the text are also taken, like getAllSurfaceFormsInString would.
+	 */
+	public List<Util.PairUriSF> getSurfaceForms(int p, int max_length_sf, int min_length_sf, int max_token_sf, String language,
+			boolean with_hidden_links) {
+		ArrayList<Util.PairUriSF> output = new ArrayList<Util.PairUriSF>(getEndLink(p) - getFirstLink(p));
+		for (int link = getFirstLink(p); link < getEndLink(p); link++) {
+			if (!with_hidden_links && !isInText(link))
+				continue;
+			Util.PairUriSF pusf = new Util.PairUriSF(uris[link], getSurfaceForm(link));
+			if (Util.isAcceptableSurfaceForm(pusf, max_length_sf, min_length_sf, max_token_sf, language))
+				output.add(pusf);
+		}
+		return output;
+	}
+
+	/** a link of the paragraph being built */
+	void addLink(int start, int end, String uri, String surface_form) {
+		if (nb_links == uris.length) {
+			int new_length = 2 * nb_links;
+			link_starts = Arrays.copyOf(link_starts, new_length);
+			link_ends = Arrays.copyOf(link_ends, new_length);
+			uris = Arrays.copyOf(uris, new_length);
+			surface_forms = Arrays.copyOf(surface_forms, new_length);
+		}
+		link_starts[nb_links] = start;
+		link_ends[nb_links] = end;
+		uris[nb_links] = uri;
+		surface_forms[nb_links] = surface_form;
+		nb_links++;
+	}
+
+	/** where the paragraph being built starts in text */
+	int currentStart() {
+		return nb_paragraphs == 0 ? 0 : paragraph_ends[nb_paragraphs - 1];
+	}
+
+	int currentLength() {
+		return text.length() - currentStart();
+	}
+
+	/** forget the paragraph being built, and its links */
+	void discardCurrent() {
+		text.setLength(currentStart());
+		nb_links = first_links[nb_paragraphs];
+	}
+
+	/**
+	 * trim the paragraph being built, and keep it if more than one char
+	 * remains. The links are cut to what remains, and dropped if nothing does.
+	 */
+	void closeCurrent() {
+		int start = currentStart();
+		int real_start = start;
+		int real_end = text.length();
+		while (real_start < real_end && Util.isWhite(text.charAt(real_start)))
+			real_start++;
+		while (real_end > real_start && Util.isWhite(text.charAt(real_end - 1)))
+			real_end--;
+		if (real_end - real_start <= 1) {
+			discardCurrent();
+			return;
+		}
+		text.setLength(real_end);
+
+		int kept = first_links[nb_paragraphs];
+		for (int link = kept; link < nb_links; link++) {
+			if (link_starts[link] != -1) {
+				link_starts[link] = Math.max(real_start, link_starts[link]);
+				link_ends[link] = Math.min(real_end, link_ends[link]);
+				if (link_starts[link] >= link_ends[link])
+					continue;
+			}
+			link_starts[kept] = link_starts[link];
+			link_ends[kept] = link_ends[link];
+			uris[kept] = uris[link];
+			surface_forms[kept] = surface_forms[link];
+			kept++;
+		}
+		nb_links = kept;
+
+		if (nb_paragraphs + 1 == paragraph_starts.length) {
+			int new_length = 2 * paragraph_starts.length;
+			paragraph_starts = Arrays.copyOf(paragraph_starts, new_length);
+			paragraph_ends = Arrays.copyOf(paragraph_ends, new_length);
+			first_links = Arrays.copyOf(first_links, new_length + 1);
+		}
+		paragraph_starts[nb_paragraphs] = real_start;
+		paragraph_ends[nb_paragraphs] = real_end;
+		nb_paragraphs++;
+		first_links[nb_paragraphs] = nb_links;
+	}
+
+}
@@ -0,0 +1,161 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts an array with several threads (a merge sort on a ForkJoinPool), like
+ * Arrays.sort would with one: the sort is stable. The array is cut in parts
+ * sorted by Arrays.sort, that are then merged two by two. A merge of two big
+ * parts is itself split in independent merges: the middle element of the
+ * longest part is looked up in the other one, and each side of it is merged
+ * on its own.
+ *
+ * It takes a buffer of the size of the array.
+ *
+ * @author sam
+ *
+ */
+public class ParallelSort {
+	/** below this, a part is sorted or merged by a single thread */
+	public static int MIN_PART_SIZE = 8192;
+
+	public static <T> void sort(T[] array, Comparator<? super T> comparator, int nb_threads) {
+		if (array.length <= MIN_PART_SIZE || nb_threads <= 1) {
+			Arrays.sort(array, comparator);
+			return;
+		}
+		T[] buffer = Arrays.copyOf(array, array.length);
+		/** a few parts per thread, so that the threads that are done early can steal some */
+		int part_size = Math.max(MIN_PART_SIZE, array.length / (4 * nb_threads));
+		ForkJoinPool pool = new ForkJoinPool(nb_threads);
+		pool.invoke(new SortTask<T>(array, buffer, 0, array.length, comparator, part_size));
+		pool.shutdown();
+	}
+
+	/** sorts array[from, to[, with buffer[from, to[ */
+	private static class SortTask<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final T[] array, buffer;
+		final int from, to;
+		final Comparator<? super T> comparator;
+		final int part_size;
+
+		SortTask(T[] array, T[] buffer, int from, int to, Comparator<? super T> comparator, int part_size) {
+			this.array = array;
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.comparator = comparator;
+			this.part_size = part_size;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= part_size) {
+				Arrays.sort(array, from, to, comparator);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new SortTask<T>(array, buffer, from, middle, comparator, part_size), new SortTask<T>(array, buffer, middle, to,
+					comparator, part_size));
+			/** already in order, nothing to merge */
+			if (comparator.compare(array[middle - 1], array[middle]) <= 0)
+				return;
+			System.arraycopy(array, from, buffer, from, to - from);
+			new MergeTask<T>(buffer, from, middle, middle, to, array, from, comparator, part_size).compute();
+		}
+	}
+
+	/**
+	 * merges the sorted source[left_from, left_to[ and source[right_from,
+	 * right_to[ in target from target_from. On equal elements, the left ones
+	 * come first.
+	 */
+	private static class MergeTask<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final T[] source, target;
+		final int left_from, left_to, right_from, right_to, target_from;
+		final Comparator<? super T> comparator;
+		final int part_size;
+
+		MergeTask(T[] source, int left_from, int left_to, int right_from, int right_to, T[] target, int target_from,
+				Comparator<? super T> comparator, int part_size) {
+			this.source = source;
+			this.left_from = left_from;
+			this.left_to = left_to;
+			this.right_from = right_from;
+			this.right_to = right_to;
+			this.target = target;
+			this.target_from = target_from;
+			this.comparator = comparator;
+			this.part_size = part_size;
+		}
+
+		@Override
+		protected void compute() {
+			int left_length = left_to - left_from;
+			int right_length = right_to - right_from;
+			if (left_length + right_length <= part_size) {
+				merge();
+				return;
+			}
+			int left_middle, right_middle;
+			if (left_length >= right_length) {
+				/** the right elements equal to the middle one go after it */
+				left_middle = (left_from + left_to) >>> 1;
+				right_middle = lowerBound(source[left_middle], right_from, right_to);
+			} else {
+				/** the left elements equal to the middle one go before it */
+				right_middle = (right_from + right_to) >>> 1;
+				left_middle = upperBound(source[right_middle], left_from, left_to);
+			}
+			int target_middle = target_from + (left_middle - left_from) + (right_middle - right_from);
+			invokeAll(new MergeTask<T>(source, left_from, left_middle, right_from, right_middle, target, target_from, comparator, part_size),
+					new MergeTask<T>(source, left_middle, left_to, right_middle, right_to, target, target_middle, comparator, part_size));
+		}
+
+		private void merge() {
+			int i = left_from;
+			int j = right_from;
+			int k = target_from;
+			while (i < left_to && j < right_to) {
+				if (comparator.compare(source[j], source[i]) < 0)
+					target[k++] = source[j++];
+				else
+					target[k++] = source[i++];
+			}
+			while (i < left_to)
+				target[k++] = source[i++];
+			while (j < right_to)
+				target[k++] = source[j++];
+		}
+
+		/** the first index of source[from, to[ whose element is not lower than value */
+		private int lowerBound(T value, int from, int to) {
+			while (from < to) {
+				int middle = (from + to) >>> 1;
+				if (comparator.compare(source[middle], value) < 0)
+					from = middle + 1;
+				else
+					to = middle;
+			}
+			return from;
+		}
+
+		/** the first index of source[from, to[ whose element is greater than value */
+		private int upperBound(T value, int from, int to) {
+			while (from < to) {
+				int middle = (from + to) >>> 1;
+				if (comparator.compare(source[middle], value) <= 0)
+					from = middle + 1;
+				else
+					to = middle;
+			}
+			return from;
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Resolves the redirections (title -> target) found in the dump. The chains
+ * of redirections are followed once for all when the resolver is built, so
+ * that resolve() costs one lookup (two if the first char of the uri has to be
+ * uppercased) instead of one per hop.
+ *
+ * A hop follows the uri itself if it is a redirection, or else the uri with
+ * its first char uppercased (the titles of Wikipedia start with an uppercase).
+ * A chain stops after MAX_HOPS hops, or before going back to a uri it already
+ * went through (a cycle). The final uri is always returned with its first
+ * char uppercased.
+ *
+ * To save memory, the map given to the constructor becomes the closure: its
+ * values are replaced by the final uris. Once built, a resolver can be used by
+ * several threads as long as the map is not modified.
+ *
+ * @author sam
+ *
+ */
+public class RedirectResolver {
+	public static int MAX_HOPS = 15;
+
+	private final Map<String, String> redirections;
+
+	public RedirectResolver(Map<String, String> redirections) {
+		this.redirections = redirections;
+		int nb_cycles = 0;
+		int nb_too_long = 0;
+		/** the uris of the chain being followed */
+		ArrayList<String> chain = new ArrayList<String>();
+		for (Map.Entry<String, String> entry : redirections.entrySet()) {
+			chain.clear();
+			chain.add(entry.getKey());
+			String current = entry.getKey();
+			int hop = 0;
+			for (; hop < MAX_HOPS; hop++) {
+				String next = nextHop(current);
+				if (next == null)
+					break;
+				/**
+				 * a chain goes through keys whose value may already be their
+				 * final uri, which only shortens it
+				 */
+				if (chain.contains(next)) {
+					nb_cycles++;
+					break;
+				}
+				chain.add(next);
+				current = next;
+			}
+			if (hop == MAX_HOPS)
+				nb_too_long++;
+			entry.setValue(Util.upperifyFirstChar(current));
+		}
+		System.out.println(redirections.size() + " redirections resolved, " + nb_cycles + " in a cycle, " + nb_too_long
+				+ " with more than " + MAX_HOPS + " hops");
+	}
+
+	private String nextHop(String uri) {
+		String next = redirections.get(uri);
+		if (next == null) {
+			String upperified = Util.upperifyFirstChar(uri);
+			if (upperified != uri)
+				next = redirections.get(upperified);
+		}
+		return next;
+	}
+
+	/** the uri at the end of the redirections from uri, first char uppercased */
+	public String resolve(String uri) {
+		String target = redirections.get(uri);
+		if (target != null)
+			return target;
+		String upperified = Util.upperifyFirstChar(uri);
+		if (upperified != uri) {
+			target = redirections.get(upperified);
+			if (target != null)
+				return target;
+		}
+		return upperified;
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * An article once cleaned, as it is kept in the paragraph store (a file of
+ * records, see RecordWriter) written during the first pass, and read by the
+ * following ones instead of the dump.
+ *
+ * The paragraphs are those of a WikiTextCleaner without the lists and the
+ * references: their links are replaced by their text, and each one is
+ * remembered as an offset in the paragraph along with the uri it points to.
+ * Only the links that are in the text are kept.
+ *
+ * An instance is reused from one page to the next (the paragraphs are kept in
+ * a ParagraphBuffer), so a worker keeps its own.
+ *
+ * A record is: the id (long), the title, the number of paragraphs (int), and
+ * for each paragraph its text, its number of links (int), and for each link
+ * its start and end (int) and its uri. The Strings are written as their
+ * number of bytes (int) followed by their UTF-8 bytes.
+ *
+ * @author sam
+ *
+ */
+public class StoredPage {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public long id;
+	public String title;
+	public ParagraphBuffer paragraphs = new ParagraphBuffer();
+
+	private final CharsetEncoder encoder = UTF8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharsetDecoder decoder = UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer encoded = ByteBuffer.allocate(16 * 1024);
+	private CharBuffer decoded = CharBuffer.allocate(16 * 1024);
+
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeLong(id);
+		writeString(out, title == null ? "" : title, 0, title == null ? 0 : title.length());
+		out.writeInt(paragraphs.size());
+		for (int p = 0; p < paragraphs.size(); p++) {
+			int start = paragraphs.getStart(p);
+			writeString(out, paragraphs.getText(), start, paragraphs.getEnd(p));
+			int nb_links = 0;
+			for (int link = paragraphs.getFirstLink(p); link < paragraphs.getEndLink(p); link++) {
+				if (paragraphs.isInText(link))
+					nb_links++;
+			}
+			out.writeInt(nb_links);
+			for (int link = paragraphs.getFirstLink(p); link < paragraphs.getEndLink(p); link++) {
+				if (!paragraphs.isInText(link))
+					continue;
+				out.writeInt(paragraphs.getLinkStart(link) - start);
+				out.writeInt(paragraphs.getLinkEnd(link) - start);
+				String uri = paragraphs.getUri(link);
+				writeString(out, uri, 0, uri.length());
+			}
+		}
+	}
+
+	/** replace the content of this page by the one written by writeTo, from the position of bytes */
+	public StoredPage readFrom(ByteBuffer bytes) {
+		paragraphs.clear();
+		StringBuilder text = paragraphs.text;
+		id = bytes.getLong();
+		readChars(bytes);
+		title = decoded.toString();
+		int nb_paragraphs = bytes.getInt();
+		for (int i = 0; i < nb_paragraphs; i++) {
+			int start = text.length();
+			readChars(bytes);
+			text.append(decoded);
+			int nb_links = bytes.getInt();
+			for (int j = 0; j < nb_links; j++) {
+				int link_start = start + bytes.getInt();
+				int link_end = start + bytes.getInt();
+				readChars(bytes);
+				paragraphs.addLink(link_start, link_end, decoded.toString(), null);
+			}
+			paragraphs.closeCurrent();
+		}
+		return this;
+	}
+
+	private void writeString(DataOutputStream out, CharSequence s, int start, int end) throws IOException {
+		/** at most 3 bytes per char in UTF-8 */
+		if (encoded.capacity() < 3 * (end - start))
+			encoded = ByteBuffer.allocate(3 * (end - start));
+		encoded.clear();
+		encoder.reset();
+		encoder.encode(CharBuffer.wrap(s, start, end), encoded, true);
+		encoder.flush(encoded);
+		out.writeInt(encoded.position());
+		out.write(encoded.array(), 0, encoded.position());
+	}
+
+	/** decode the next String of bytes in decoded, that is ready to be read */
+	private void readChars(ByteBuffer bytes) {
+		int length = bytes.getInt();
+		/** no more chars than bytes in UTF-8 */
+		if (decoded.capacity() < length)
+			decoded = CharBuffer.allocate(length);
+		decoded.clear();
+		int limit = bytes.limit();
+		bytes.limit(bytes.position() + length);
+		decoder.reset();
+		decoder.decode(bytes, decoded, true);
+		decoder.flush(decoded);
+		bytes.limit(limit);
+		decoded.flip();
+	}
+
+}
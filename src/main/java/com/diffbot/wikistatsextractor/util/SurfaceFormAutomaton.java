@@ -0,0 +1,93 @@
+package com.diffbot.wikistatsextractor.util;
+
+/**
+ * An Aho-Corasick automaton of all the entries of a SurfaceFormDictionary: a
+ * text is read once, char by char, and after each char the automaton gives
+ * all the entries that end there, whatever their number of tokens. Checking
+ * that a match starts and ends on the boundaries of tokens is left to the
+ * caller, that knows them.
+ *
+ * Usage:
+ *
+ * <pre>
+ * int state = SurfaceFormAutomaton.ROOT;
+ * for (int i = start; i < end; i++) {
+ * 	state = automaton.next(state, text.charAt(i));
+ * 	for (int match = automaton.firstMatch(state); match != -1; match = automaton.nextMatch(match))
+ * 		... automaton.getId(match) ends at i+1, and starts at i+1-dictionary.length(id)
+ * }
+ * </pre>
+ *
+ * It is a SurfaceFormTrie, plus the fails: a node costs a char and four ints,
+ * and a transition is a binary search among the children (an array lookup
+ * from the root). It still takes several times the memory of the dictionary
+ * itself.
+ *
+ * Once built, it is only read and can be shared by several threads.
+ *
+ * @author sam
+ *
+ */
+public class SurfaceFormAutomaton {
+	public static final int ROOT = SurfaceFormTrie.ROOT;
+
+	private final SurfaceFormTrie trie;
+	/** the node of the longest proper suffix of each node that is in the trie */
+	private final int[] fails;
+	/** the next node along the fails that has an output, -1 if there is none */
+	private final int[] output_links;
+
+	public SurfaceFormAutomaton(SurfaceFormDictionary dictionary) {
+		this.trie = new SurfaceFormTrie(dictionary);
+		int nb_nodes = trie.getNbNodes();
+		fails = new int[nb_nodes];
+		output_links = new int[nb_nodes];
+
+		/** the fails, in breadth first order: the ones of the parents are known */
+		fails[ROOT] = ROOT;
+		output_links[ROOT] = -1;
+		for (int node = 0; node < nb_nodes; node++) {
+			for (int child = trie.firstChild(node); child < trie.firstChild(node + 1); child++) {
+				int fail = node == ROOT ? ROOT : next(fails[node], trie.label(child));
+				fails[child] = fail;
+				output_links[child] = trie.getId(fail) != -1 ? fail : output_links[fail];
+			}
+		}
+		System.out.println("automaton of " + dictionary.size() + " entries built, " + nb_nodes + " nodes");
+	}
+
+	/** the state after reading c in state */
+	public int next(int state, char c) {
+		while (state != ROOT) {
+			int child = trie.child(state, c);
+			if (child != -1)
+				return child;
+			state = fails[state];
+		}
+		return trie.rootChild(c);
+	}
+
+	/** the first node whose entry ends in that state, -1 if none does */
+	public int firstMatch(int state) {
+		return trie.getId(state) != -1 ? state : output_links[state];
+	}
+
+	/** the next one after match, -1 if there is no more */
+	public int nextMatch(int match) {
+		return output_links[match];
+	}
+
+	/** the id, in the dictionary, of the entry of a match, or of a node (-1 if none ends there) */
+	public int getId(int match) {
+		return trie.getId(match);
+	}
+
+	public int getNbNodes() {
+		return trie.getNbNodes();
+	}
+
+	public SurfaceFormDictionary getDictionary() {
+		return trie.getDictionary();
+	}
+
+}
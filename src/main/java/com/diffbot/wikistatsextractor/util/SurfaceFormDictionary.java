@@ -0,0 +1,204 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of Strings (the surface forms, or the uris), each one with
+ * an int id (0, 1, 2... in the order they were added). It is looked up with a
+ * range of any CharSequence, so a worker can check every n-gram of a paragraph
+ * without a substring for each one, and count them in an int[] indexed by id.
+ *
+ * All the chars are in a single char[], and the table is an open addressing
+ * one (linear probing) of int, which is much lighter than a HashMap of
+ * millions of Strings and Integers.
+ *
+ * It is built with a Builder, and once built it can be read by any number of
+ * threads. A Builder can also be used on its own to intern Strings: a worker
+ * keeps the ids instead of the Strings, and the chars are stored once.
+ *
+ * @author sam
+ *
+ */
+public class SurfaceFormDictionary {
+	/** the biggest array the VMs can allocate */
+	private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+	/** the chars of all the entries, entry id is chars[offsets[id], offsets[id+1][ */
+	private char[] chars;
+	private int[] offsets;
+	/** the hash of each entry */
+	private int[] hashes;
+	/** id+1 of the entry in each slot, 0 for an empty slot */
+	private int[] table;
+	private int size = 0;
+	private int nb_chars = 0;
+
+	private SurfaceFormDictionary(int expected_size) {
+		int capacity = 16;
+		while (capacity < 2 * expected_size)
+			capacity <<= 1;
+		table = new int[capacity];
+		chars = new char[Math.max(16, 16 * expected_size)];
+		offsets = new int[expected_size + 1];
+		hashes = new int[expected_size];
+	}
+
+	/** the id of s[start, end[, -1 if it is not in the dictionary */
+	public int lookup(CharSequence s, int start, int end) {
+		int hash = hash(s, start, end);
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0) {
+			int id = table[slot] - 1;
+			if (hashes[id] == hash && equals(id, s, start, end))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/** the id of s, -1 if it is not in the dictionary */
+	public int get(String s) {
+		return lookup(s, 0, s.length());
+	}
+
+	public String getString(int id) {
+		return new String(chars, offsets[id], offsets[id + 1] - offsets[id]);
+	}
+
+	public int length(int id) {
+		return offsets[id + 1] - offsets[id];
+	}
+
+	/** the char at index of the entry id, without copying it */
+	public char charAt(int id, int index) {
+		return chars[offsets[id] + index];
+	}
+
+	/** compares two entries like String.compareTo would */
+	public int compare(int id1, int id2) {
+		int length1 = length(id1);
+		int length2 = length(id2);
+		int offset1 = offsets[id1];
+		int offset2 = offsets[id2];
+		int min_length = Math.min(length1, length2);
+		for (int i = 0; i < min_length; i++) {
+			char c1 = chars[offset1 + i];
+			char c2 = chars[offset2 + i];
+			if (c1 != c2)
+				return c1 - c2;
+		}
+		return length1 - length2;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private boolean equals(int id, CharSequence s, int start, int end) {
+		int offset = offsets[id];
+		if (offsets[id + 1] - offset != end - start)
+			return false;
+		for (int i = start; i < end; i++) {
+			if (chars[offset++] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private static int hash(CharSequence s, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++)
+			h = 31 * h + s.charAt(i);
+		/** spread the bits, the table is indexed by the low ones */
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	/** fills a dictionary. Not thread safe, and not to be used after build() */
+	public static class Builder {
+		private SurfaceFormDictionary dictionary;
+
+		public Builder(int expected_size) {
+			dictionary = new SurfaceFormDictionary(expected_size);
+		}
+
+		/** add s if it is not there yet, and return its id */
+		public int add(CharSequence s) {
+			SurfaceFormDictionary d = dictionary;
+			int id = d.lookup(s, 0, s.length());
+			if (id != -1)
+				return id;
+
+			id = d.size;
+			if (id == d.hashes.length) {
+				d.hashes = Arrays.copyOf(d.hashes, grownLength(d.hashes.length, id + 1L));
+				d.offsets = Arrays.copyOf(d.offsets, d.hashes.length + 1);
+			}
+			if (d.nb_chars + (long) s.length() > d.chars.length)
+				d.chars = Arrays.copyOf(d.chars, grownLength(d.chars.length, d.nb_chars + (long) s.length()));
+			for (int i = 0; i < s.length(); i++)
+				d.chars[d.nb_chars++] = s.charAt(i);
+			d.offsets[id + 1] = d.nb_chars;
+			d.hashes[id] = hash(s, 0, s.length());
+			d.size++;
+			insert(d, id);
+			if (2 * d.size > d.table.length)
+				grow(d);
+			return id;
+		}
+
+		/** the entry id, without building the dictionary */
+		public String getString(int id) {
+			return dictionary.getString(id);
+		}
+
+		public int size() {
+			return dictionary.size;
+		}
+
+		/** compares two entries like String.compareTo would */
+		public int compare(int id1, int id2) {
+			return dictionary.compare(id1, id2);
+		}
+
+		/** the memory taken by the arrays, in bytes */
+		public long sizeInBytes() {
+			SurfaceFormDictionary d = dictionary;
+			return 2L * d.chars.length + 4L * (d.offsets.length + d.hashes.length + d.table.length);
+		}
+
+		/** the dictionary, with its arrays trimmed to what they contain */
+		public SurfaceFormDictionary build() {
+			SurfaceFormDictionary d = dictionary;
+			dictionary = null;
+			d.chars = Arrays.copyOf(d.chars, d.nb_chars);
+			d.offsets = Arrays.copyOf(d.offsets, d.size + 1);
+			d.hashes = Arrays.copyOf(d.hashes, d.size);
+			return d;
+		}
+
+		/** twice length, at least min_length, but no more than MAX_ARRAY_LENGTH */
+		private static int grownLength(int length, long min_length) {
+			if (min_length > MAX_ARRAY_LENGTH)
+				throw new IllegalStateException("a dictionary cannot hold more than " + MAX_ARRAY_LENGTH + " chars or entries");
+			return (int) Math.min(MAX_ARRAY_LENGTH, Math.max(Math.max(16L, 2L * length), min_length));
+		}
+
+		private static void insert(SurfaceFormDictionary d, int id) {
+			int mask = d.table.length - 1;
+			int slot = d.hashes[id] & mask;
+			while (d.table[slot] != 0)
+				slot = (slot + 1) & mask;
+			d.table[slot] = id + 1;
+		}
+
+		private static void grow(SurfaceFormDictionary d) {
+			d.table = new int[2 * d.table.length];
+			for (int id = 0; id < d.size; id++)
+				insert(d, id);
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The trie of all the entries of a SurfaceFormDictionary: the node of a
+ * string, if some entries start with it, is found by walking down from the
+ * root one char at a time. SurfaceFormAutomaton adds the fails of
+ * Aho-Corasick on top of it; DictionarySegmenter only needs the trie.
+ *
+ * The nodes are numbered in breadth first order, so that the children of a
+ * node are contiguous and sorted by char: a node costs a char and two ints,
+ * and a child is found by a binary search among the children (an array
+ * lookup from the root).
+ *
+ * Once built, it is only read and can be shared by several threads.
+ *
+ * @author sam
+ *
+ */
+public class SurfaceFormTrie {
+	public static final int ROOT = 0;
+
+	private final SurfaceFormDictionary dictionary;
+	private final int nb_nodes;
+	/** the char that leads to each node from its parent */
+	private final char[] labels;
+	/** the children of node n are the nodes [first_children[n], first_children[n+1][ */
+	private final int[] first_children;
+	/** the id of the entry that ends at each node, -1 if there is none */
+	private final int[] outputs;
+	/** the children of the root, indexed by char (ROOT for none) */
+	private final int[] root_children = new int[Character.MAX_VALUE + 1];
+
+	public SurfaceFormTrie(final SurfaceFormDictionary dictionary) {
+		this.dictionary = dictionary;
+		int nb_entries = dictionary.size();
+
+		/** the entries sorted, so that the ones with a common prefix are together */
+		Integer[] sorted = new Integer[nb_entries];
+		for (int id = 0; id < nb_entries; id++)
+			sorted[id] = id;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer id1, Integer id2) {
+				return dictionary.compare(id1, id2);
+			}
+		});
+		int[] ids = new int[nb_entries];
+		for (int i = 0; i < nb_entries; i++)
+			ids[i] = sorted[i];
+		sorted = null;
+
+		/** an entry adds one node per char after its common prefix with the previous one */
+		int count = 1;
+		for (int i = 0; i < nb_entries; i++) {
+			int common = i == 0 ? 0 : commonPrefix(ids[i - 1], ids[i]);
+			count += dictionary.length(ids[i]) - common;
+		}
+		nb_nodes = count;
+		labels = new char[nb_nodes];
+		first_children = new int[nb_nodes + 1];
+		outputs = new int[nb_nodes];
+		Arrays.fill(outputs, -1);
+
+		/**
+		 * build the trie level by level. The entries that start with the
+		 * prefix of node n are ids[from[n], to[n][
+		 */
+		int[] from = new int[nb_nodes];
+		int[] to = new int[nb_nodes];
+		from[ROOT] = 0;
+		to[ROOT] = nb_entries;
+		int next_node = 1;
+		int level_end = 1;
+		int depth = 0;
+		for (int node = 0; node < nb_nodes; node++) {
+			if (node == level_end) {
+				depth++;
+				level_end = next_node;
+			}
+			first_children[node] = next_node;
+			int i = from[node];
+			int end = to[node];
+			/** the entry equal to the prefix comes first. No empty entry */
+			if (i < end && dictionary.length(ids[i]) == depth) {
+				if (depth > 0)
+					outputs[node] = ids[i];
+				i++;
+			}
+			while (i < end) {
+				char c = dictionary.charAt(ids[i], depth);
+				int group_end = i + 1;
+				while (group_end < end && dictionary.charAt(ids[group_end], depth) == c)
+					group_end++;
+				labels[next_node] = c;
+				from[next_node] = i;
+				to[next_node] = group_end;
+				if (node == ROOT)
+					root_children[c] = next_node;
+				next_node++;
+				i = group_end;
+			}
+		}
+		first_children[nb_nodes] = next_node;
+	}
+
+	/** the child of node by c, -1 if there is none */
+	public int child(int node, char c) {
+		if (node == ROOT) {
+			int child = root_children[c];
+			return child == ROOT ? -1 : child;
+		}
+		int low = first_children[node];
+		int high = first_children[node + 1] - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			char label = labels[middle];
+			if (label < c)
+				low = middle + 1;
+			else if (label > c)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+
+	/** the child of the root by c, ROOT if there is none */
+	int rootChild(char c) {
+		return root_children[c];
+	}
+
+	/** the char that leads to node from its parent */
+	char label(int node) {
+		return labels[node];
+	}
+
+	/** the children of node are [firstChild(node), firstChild(node+1)[ */
+	int firstChild(int node) {
+		return first_children[node];
+	}
+
+	/** the id, in the dictionary, of the entry that ends at node, -1 if there is none */
+	public int getId(int node) {
+		return outputs[node];
+	}
+
+	public int getNbNodes() {
+		return nb_nodes;
+	}
+
+	public SurfaceFormDictionary getDictionary() {
+		return dictionary;
+	}
+
+	private int commonPrefix(int id1, int id2) {
+		int max = Math.min(dictionary.length(id1), dictionary.length(id2));
+		int i = 0;
+		while (i < max && dictionary.charAt(id1, i) == dictionary.charAt(id2, i))
+			i++;
+		return i;
+	}
+
+}
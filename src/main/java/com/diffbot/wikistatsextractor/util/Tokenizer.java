@@ -2,15 +2,66 @@ package com.diffbot.wikistatsextractor.util;
 
 import java.text.BreakIterator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 
-/** by default, a simple space tokenizer. It should definitely be completed by Something better for chinese */
+/** 
+ * by default, a simple space tokenizer. For the languages that do not separate 
+ * their words with spaces (chinese, japanese, thai), a WordSegmenter can be 
+ * registered with setSegmenter: the Tokenizers of that language then use it
+ * to split the runs of these scripts in words, and getNbTokens counts them.
+ */
 public class Tokenizer {
 	
-	/** quickly get the nb of token in that String */
+	/** the segmenters, by language. Shared by all the Tokenizers of a language */
+	private static final ConcurrentHashMap<String, WordSegmenter> segmenters=new ConcurrentHashMap<String, WordSegmenter>();
+	/** for getNbTokens, one per thread */
+	private static final ThreadLocal<Tokenizer> thread_tokenizers=new ThreadLocal<Tokenizer>();
+	
+	/** use segmenter for the language, from the Tokenizers created after that */
+	public static void setSegmenter(String language, WordSegmenter segmenter){
+		segmenters.put(language, segmenter);
+	}
+	
+	/** null if the language has none */
+	public static WordSegmenter getSegmenter(String language){
+		return segmenters.get(language);
+	}
+	
+	/** by language, whether its word BreakIterator is the default one */
+	private static final ConcurrentHashMap<String, Boolean> default_rules_by_language=new ConcurrentHashMap<String, Boolean>();
+	
+	/**
+	 * the char classes below are the default word rules of BreakIterator. The
+	 * languages with their own (in the JDK, the dictionary based th) are left
+	 * to their BreakIterator, which is told by its class.
+	 */
+	private static boolean hasDefaultRules(String language){
+		Boolean default_rules=default_rules_by_language.get(language);
+		if (default_rules==null){
+			default_rules=BreakIterator.getWordInstance(new Locale(language)).getClass()==BreakIterator.getWordInstance(Locale.ROOT).getClass();
+			default_rules_by_language.put(language, default_rules);
+		}
+		return default_rules;
+	}
+	
+	/** 
+	 * quickly get the nb of token in that String. Actually the number of
+	 * spaces between two tokens, so the number of tokens minus one. Same 
+	 * thing for a language with a segmenter, with its words.
+	 */
 	public static int getNbTokens(String s, String language){
+		if (!segmenters.isEmpty() && segmenters.containsKey(language)){
+			Tokenizer tokenizer=thread_tokenizers.get();
+			if (tokenizer==null || !tokenizer.language.equals(language) || tokenizer.segmenter!=segmenters.get(language)){
+				tokenizer=new Tokenizer(language);
+				thread_tokenizers.set(tokenizer);
+			}
+			return Math.max(0, tokenizer.tokenize(s, 0, s.length())-1);
+		}
 		int len=s.length();
 		int nb_tokens=0;
 		for (int i=1; i<len; i++){
@@ -97,40 +148,262 @@ public class Tokenizer {
 	
 	/** Uses the BreakIndexer class from java */
 	public static ArrayList<Integer> getDelimiters2(String s, String language){
-		ArrayList<Integer> list_boundaries=new ArrayList<Integer>();
-		BreakIterator bi=BreakIterator.getWordInstance(new Locale(language));
-		
-		
-		bi.setText(s);
-		int start=bi.first();
-		
-		int end = 0;
+		Tokenizer tokenizer=new Tokenizer(language);
+		int nb_tokens=tokenizer.tokenize(s, 0, s.length());
+		ArrayList<Integer> list_boundaries=new ArrayList<Integer>(2*nb_tokens);
+		for (int t=0; t<nb_tokens; t++){
+			list_boundaries.add(tokenizer.getStart(t));
+			list_boundaries.add(tokenizer.getEnd(t));
+		}
+		return list_boundaries;
+	}
+	
+	/** 
+	 * The classes of chars of the word rules of BreakIterator, for the scripts
+	 * where words are separated by spaces (Latin, Greek, Cyrillic and the 
+	 * general and CJK punctuation, the fullwidth forms). SEGMENTED for the 
+	 * scripts without spaces (Han, kana, Thai), that are given to the 
+	 * segmenter if there is one. UNSUPPORTED for the others (the combining 
+	 * marks, format chars...), that are left to BreakIterator.
+	 */
+	private static final byte UNSUPPORTED=0, OTHER=1, LETTER=2, DIGIT=3, SPACE=4, LINE_SEPARATOR=5, CARRIAGE_RETURN=6, SEGMENTED=7;
+	private static final byte[] char_classes=new byte[256*256];
+	/** the punctuation allowed between two letters of a word, two digits of a number, before and after a number */
+	private static final boolean[] is_mid_word=new boolean[256*256];
+	private static final boolean[] is_mid_num=new boolean[256*256];
+	private static final boolean[] is_pre_num=new boolean[256*256];
+	private static final boolean[] is_post_num=new boolean[256*256];
+	static{
+		for (int c=0; c<256*256; c++){
+			if (!(c<0x0590 || (c>=0x2000 && c<=0x2029) || (c>=0x3000 && c<0x3040 && c!=0x3005) || (c>=0xff00 && c<0xfff0)))
+				continue;
+			int type=Character.getType(c);
+			switch (type){
+			case Character.NON_SPACING_MARK:
+			case Character.ENCLOSING_MARK:
+			case Character.FORMAT:
+			case Character.SURROGATE:
+			case Character.UNASSIGNED:
+				continue;
+			case Character.UPPERCASE_LETTER:
+			case Character.LOWERCASE_LETTER:
+			case Character.TITLECASE_LETTER:
+			case Character.MODIFIER_LETTER:
+			case Character.OTHER_LETTER:
+			case Character.COMBINING_SPACING_MARK:
+				char_classes[c]=LETTER;
+				break;
+			case Character.DECIMAL_DIGIT_NUMBER:
+			case Character.LETTER_NUMBER:
+			case Character.OTHER_NUMBER:
+				char_classes[c]=DIGIT;
+				break;
+			case Character.SPACE_SEPARATOR:
+				char_classes[c]=SPACE;
+				break;
+			default:
+				char_classes[c]=OTHER;
+			}
+			is_mid_word[c]=type==Character.DASH_PUNCTUATION || type==Character.CONNECTOR_PUNCTUATION;
+			is_pre_num[c]=type==Character.CURRENCY_SYMBOL && c!='\u00a2';
+		}
+		char_classes['\t']=SPACE;
+		char_classes['\n']=LINE_SEPARATOR;
+		char_classes['\f']=LINE_SEPARATOR;
+		char_classes['\u2028']=LINE_SEPARATOR;
+		char_classes['\u2029']=LINE_SEPARATOR;
+		char_classes['\r']=CARRIAGE_RETURN;
+		int[][] segmented={{0x0e00, 0x0e7f}, {0x3005, 0x3005}, {0x3040, 0x30ff}, {0x3400, 0x4dbf}, {0x4e00, 0x9fff}, {0xf900, 0xfaff}};
+		for (int[] range : segmented){
+			for (int c=range[0]; c<=range[1]; c++)
+				char_classes[c]=SEGMENTED;
+		}
+		for (char c : "\u2027\"'.".toCharArray())
+			is_mid_word[c]=true;
+		for (char c : "\"',.".toCharArray())
+			is_mid_num[c]=true;
+		for (char c : "#.".toCharArray())
+			is_pre_num[c]=true;
+		for (char c : "%&\u00a2".toCharArray())
+			is_post_num[c]=true;
+	}
+	
+	/**
+	 * A reusable tokenizer, to keep one per thread: the tokens are written in
+	 * an int[] that grows to the biggest paragraph, and the BreakIterator is
+	 * only created if a text needs it. The tokens are the ones of 
+	 * getDelimiters2: the words of BreakIterator, minus the single chars
+	 * that are delimiters.
+	 */
+	private final String language;
+	private final Locale locale;
+	/** null if the language has none */
+	private final WordSegmenter segmenter;
+	/** if false, every text goes to the BreakIterator */
+	private final boolean default_rules;
+	private BreakIterator break_iterator=null;
+	/** token t is [boundaries[2*t], boundaries[2*t+1][ */
+	private int[] boundaries=new int[256];
+	private int nb_tokens=0;
+	
+	public Tokenizer(String language){
+		this.language=language;
+		this.locale=new Locale(language);
+		this.segmenter=segmenters.get(language);
+		this.default_rules=hasDefaultRules(language);
+	}
+	
+	/** find the tokens of s[start, end[. Returns their number */
+	public int tokenize(CharSequence s, int start, int end){
+		nb_tokens=0;
+		if (!default_rules){
+			tokenizeWithBreakIterator(s, start, end);
+			return nb_tokens;
+		}
+		int i=start;
+		while (i<end){
+			int token_end=nextBoundary(s, i, end);
+			if (token_end==-1){
+				tokenizeWithBreakIterator(s, start, end);
+				return nb_tokens;
+			}
+			addToken(s, i, token_end);
+			i=token_end;
+		}
+		return nb_tokens;
+	}
+	
+	public int getNbTokens(){
+		return nb_tokens;
+	}
+	
+	/** the offsets of a token, in the CharSequence given to tokenize */
+	public int getStart(int token){
+		return boundaries[2*token];
+	}
+	
+	public int getEnd(int token){
+		return boundaries[2*token+1];
+	}
+	
+	/** 
+	 * the end of the word of BreakIterator (or of the segmenter) that starts 
+	 * at i, or -1 if a char that BreakIterator has to deal with is met.
+	 */
+	private int nextBoundary(CharSequence s, int i, int end){
+		char c=s.charAt(i);
+		switch (char_classes[c]){
+		case UNSUPPORTED:
+			return -1;
+		case SEGMENTED:
+			if (segmenter==null)
+				return -1;
+			return segmenter.nextWord(s, i, end);
+		case LETTER:
+		case DIGIT:
+			return endOfWordsAndNumbers(s, i, end);
+		case SPACE:
+		case CARRIAGE_RETURN:
+		case LINE_SEPARATOR:
+			/** a run of spaces, then maybe \r, then maybe one line separator */
+			int j=i;
+			while (j<end && char_classes[s.charAt(j)]==SPACE)
+				j++;
+			if (j<end && char_classes[s.charAt(j)]==CARRIAGE_RETURN)
+				j++;
+			if (j<end && char_classes[s.charAt(j)]==LINE_SEPARATOR)
+				j++;
+			return j;
+		default:
+			/** a number can start with a currency symbol, # or . */
+			if (is_pre_num[c] && i+1<end && char_classes[s.charAt(i+1)]==DIGIT)
+				return endOfWordsAndNumbers(s, i+1, end);
+			return i+1;
+		}
+	}
+	
+	/** 
+	 * the end of a run of words and numbers starting at i. A word can contain 
+	 * a mid word punctuation between two letters, a number a mid num one 
+	 * between two digits, and the run can end with a post num one after a digit.
+	 */
+	private int endOfWordsAndNumbers(CharSequence s, int i, int end){
+		byte last=char_classes[s.charAt(i)];
+		int j=i+1;
+		while (j<end){
+			char c=s.charAt(j);
+			byte current=char_classes[c];
+			if (isUnsupported(current))
+				return -1;
+			if (current==LETTER || current==DIGIT){
+				last=current;
+				j++;
+				continue;
+			}
+			if (j+1<end){
+				byte next=char_classes[s.charAt(j+1)];
+				if (isUnsupported(next))
+					return -1;
+				if (last==next && ((last==LETTER && is_mid_word[c]) || (last==DIGIT && is_mid_num[c]))){
+					j+=2;
+					continue;
+				}
+			}
+			if (last==DIGIT && is_post_num[c])
+				j++;
+			break;
+		}
+		return j;
+	}
+	
+	/** true if BreakIterator has to deal with that class of char */
+	private boolean isUnsupported(byte char_class){
+		return char_class==UNSUPPORTED || (char_class==SEGMENTED && segmenter==null);
+	}
+	
+	/** 
+	 * the slow path, for the scripts without spaces or the combining marks. 
+	 * If there is a segmenter, it splits the words of BreakIterator that are
+	 * runs of its scripts.
+	 */
+	private void tokenizeWithBreakIterator(CharSequence s, int start, int end){
+		nb_tokens=0;
+		if (break_iterator==null)
+			break_iterator=BreakIterator.getWordInstance(locale);
+		String text=s.subSequence(start, end).toString();
+		break_iterator.setText(text);
+		int token_start=break_iterator.first();
+		int token_end=0;
 		try {
-		      end=bi.next();
+			token_end=break_iterator.next();
 		} catch(ArrayIndexOutOfBoundsException e) {
-		       bi.setText( java.text.Normalizer.normalize(s, java.text.Normalizer.Form.NFD).replaceAll("[^\\p{ASCII}]", "") );
-		       end=bi.next();
+			break_iterator.setText(java.text.Normalizer.normalize(text, java.text.Normalizer.Form.NFD).replaceAll("[^\\p{ASCII}]", ""));
+			token_end=break_iterator.next();
 		}
-		
-		while (end != BreakIterator.DONE) {
-			if (end==start+1){
-				char c=s.charAt(start);
-				if (!tokenize_isdelim(c)){
-					list_boundaries.add(start);
-					list_boundaries.add(end);
+		while (token_end!=BreakIterator.DONE){
+			if (segmenter!=null && char_classes[s.charAt(start+token_start)]==SEGMENTED){
+				for (int i=start+token_start; i<start+token_end; ){
+					int word_end=segmenter.nextWord(s, i, start+token_end);
+					addToken(s, i, word_end);
+					i=word_end;
 				}
-					
 			}
-			else{
-					list_boundaries.add(start);
-					list_boundaries.add(end);
-			}
-
-	      start = end;
-	      end = bi.next();
+			else
+				addToken(s, start+token_start, start+token_end);
+			token_start=token_end;
+			token_end=break_iterator.next();
 		}
-		return list_boundaries;
-		
+	}
+	
+	/** keep the token, unless it is a single delimiter */
+	private void addToken(CharSequence s, int start, int end){
+		if (end==start+1 && tokenize_isdelim(s.charAt(start)))
+			return;
+		if (2*nb_tokens+2>boundaries.length)
+			boundaries=Arrays.copyOf(boundaries, 2*boundaries.length);
+		boundaries[2*nb_tokens]=start;
+		boundaries[2*nb_tokens+1]=end;
+		nb_tokens++;
 	}
 	
 	public static void main(String[] args){
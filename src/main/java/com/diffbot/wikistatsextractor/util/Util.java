@@ -6,14 +6,11 @@ import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** some Utils methods */
 public class Util {
 
-	/** xml patterns that will be unescaped. Have to be the longest first */
-	private static String[] to_unescape = { "&amp;nbsp;", "&amp;mdash;", "&amp;ndash;", "&amp;", "&quot;", "&apos;", "&#039", "&mdash;", "&ndash", "&nbsp;" };
-	private static char[] unescaped = {         '\u0020',      '\u2014',      '\u2013',    '&',      '"',     '\'',    '\'',  '\u2014', '\u2013', '\u0020' };
-
 	/**
 	 * One of the main methods. The older getCleanText was a bit more efficient,
 	 * but the system of intput output was shit. Anyway, this thing takes a
@@ -38,313 +35,29 @@ public class Util {
 	 * article, then returns null
 	 * */
 	public static List<String> getCleanTextFromPage(String page, boolean ignore_lists, boolean ignore_ref, boolean clean_links, boolean filter_by_size) {
-		/** if it is not a wikitext page, return null */
-		if (!isWikiText(page)) {
-			return null;
-		}
+		return getCleanTextFromPage(new PageHeader().scan(page), ignore_lists, ignore_ref, clean_links, filter_by_size);
+	}
 
-		/** go to the index of the text */
-		int index_text = page.indexOf("<text xml:space=\"preserve\">");
-		if (index_text == -1)
+	/** same as above, on a page that has already been scanned. See WikiTextCleaner */
+	public static List<String> getCleanTextFromPage(PageHeader header, boolean ignore_lists, boolean ignore_ref, boolean clean_links, boolean filter_by_size) {
+		WikiTextCleaner cleaner = new WikiTextCleaner(ignore_lists, ignore_ref, !clean_links, filter_by_size);
+		cleaner.setAnnotateLinks(false);
+		ParagraphBuffer paragraphs = new ParagraphBuffer();
+		if (!cleaner.clean(header, paragraphs))
 			return null;
-		index_text += "<text xml:space=\"preserve\">".length();
-
-		/** locate the end */
-		int end_text = page.indexOf("</text>");
-		
-		if(filter_by_size){
-			/** text is too short */
-			if (end_text - index_text < 100)
-				return null;
-		}
-
-		StringBuilder sb = new StringBuilder();
-		ArrayList<String> output = new ArrayList<String>();
-		int nb_accolades = 0;
-		int nb_semi_accolades = 0; // detects the "{|"
-		boolean is_in_ref = false;
-		boolean is_in_markup = false;
-		boolean is_in_comment = false;
-		boolean is_in_div = false;
-		int div_level=0;
-		boolean is_in_list = false;
-		int nb_brackets = 0;
-		int start_bracket = 0;
-		int total_length = 0;
-
-		for (int i = index_text - 1; i < end_text - 1; i++) {
-			char c = page.charAt(i);
-			char c_1 = page.charAt(i + 1);
-			// for good measure, the text will virtually starts with a '\n' (the
-			// list pattern includes '\n')
-			if (i == index_text - 1) {
-				c = '\n';
-			}
-
-			/** first we remove everything between {{ }} */
-			if (c == '{' && c_1 == '{') {
-				nb_accolades++;
-				i++;
-				continue;
-			}
-			if (c == '}' && c_1 == '}') {
-				nb_accolades--;
-				i++;
-				continue;
-			}
-			if (nb_accolades > 0)
-				continue;
-
-			/** Then we remove everything between {| |} */
-			if (c == '{' && c_1 == '|') {
-				nb_semi_accolades++;
-				i++;
-				continue;
-			}
-			if (c == '|' && c_1 == '}') {
-				nb_semi_accolades--;
-
-				i++;
-				continue;
-			}
-			if (nb_semi_accolades > 0)
-				continue;
-
-			/**
-			 * if we specify it, we can ignore everything that is in a list
-			 * (start with \n* or \n# or \n:).
-			 */
-			if (ignore_lists && c == '\n' && (c_1 == '*' || c_1 == '#' || c_1 == ':')) {
-				i++;
-				is_in_list = true;
-				i--;
-				continue;
-			}
-			if (ignore_lists && c == '\n' && is_in_list)
-				is_in_list = false;
-			if (ignore_lists && is_in_list)
-				continue;
-
-			/**
-			 * if it is a new paragraph, so either \n\n or =\n or \n=, we put
-			 * the content of the StringBuilder in a new String
-			 */
-			if (c == '\n' && (c_1 == '\n' || c_1 == '=' || page.charAt(i - 1) == '=')) {
-				if (sb.length() > 1) {
-					String text_paragraph=superTrim(sb.toString());
-					if (text_paragraph.length()>1)
-						output.add(text_paragraph);
-					total_length += sb.length();
-				}
-				/** reset the stringbuilder */
-				sb.setLength(0);
-				;
-			}
-
-			/** deal with the comments (&lt;!-- --&gt;) */
-			if (c == '&' && c_1 == 'l' && end_text > i + 7 && page.substring(i, i + 7).equals("&lt;!--")) {
-				is_in_comment = true;
-				i += 6;
-				continue;
-			}
-			if (c == '-' && c_1 == '-' && end_text > i + 6 && page.substring(i, i + 6).equals("--&gt;")) {
-				is_in_comment = false;
-				i += 5;
-				continue;
-			}
-			
-			/** Sometimes there are some html div (yeah...)  in the dump, we try to remove then. */
-			if (c == '&' && c_1 == 'l' && end_text > i + 7 && page.substring(i, i + 7).equals("&lt;div")) {
-				is_in_div = true;
-				div_level++;
-				i += 6;
-				continue;
-			}
-			if (c == '&' && c_1 == 'l' && end_text > i + 6 && page.substring(i, i + 12).equals("&lt;/div&gt;")) {
-				div_level=Math.max(0, div_level-1);
-				if (div_level==0)
-					is_in_div = false;
-				i += 11;
-				continue;
-			}
-
-			/** remove the ''' ''' (bold) and === === (title) */
-			if (c == '\'' && c_1 == '\'') {
-				while (i < end_text && page.charAt(i) == '\'')
-					i++;
-				i--;
-				continue;
-			}
-			if (c == '=' && c_1 == '=') {
-				while (i < end_text && page.charAt(i) == '=')
-					i++;
-				i--;
-				continue;
-			}
-
-			/** deals with the links */
-			if (clean_links) {
-				if (c == '[' && c_1 == '[') {
-					nb_brackets++;
-					if (nb_brackets == 1)
-						start_bracket = i + 2;
-					i++;
-					continue;
-				}
-
-				if (c == ']' && c_1 == ']') {
-					nb_brackets--;
-					if (nb_brackets == 0 && !is_in_ref && !is_in_comment) {
-						// time to look at what was in that link
-						boolean inner_wiki_ref = false;
-						int index_pipe = -1;
-						for (int k = start_bracket; k < i; k++) {
-							if (page.charAt(k) == ':') {
-								inner_wiki_ref = true;
-								break;
-							}
-							if (page.charAt(k) == '|')
-								index_pipe = k + 1;
-						}
-						if (!inner_wiki_ref) {
-							if (index_pipe != -1) {
-								sb.append(Util.unescapeXML(page.substring(index_pipe, i)));
-							} else {
-								sb.append(Util.unescapeXML(page.substring(start_bracket, i)));
-							}
-						}
-					}
-					i++;
-					continue;
-				}
-				if (nb_brackets > 0)
-					continue;
-			}
-
-			if (ignore_ref) {
-				/** deal with the references (&lt;ref&gt;) */
-				if (c == '&' && c_1 == 'l' && end_text > i + 7 && page.substring(i, i + 7).equals("&lt;ref")) {
-					is_in_ref = true;
-					i += 6;
-					/** particular case of the <ref name="thing"/> */
-					int j = i;
-					while (j < end_text - 5 && !page.substring(j, j + 4).equals("&gt;")) {
-						j++;
-					}
-					if (page.charAt(j - 1) == '/') {
-						is_in_ref = false;
-						i = j + 3;
-					}
-					continue;
-				}
-
-				if (c == '&' && c_1 == 'l' && end_text > i + 12 && page.substring(i, i + 12).equals("&lt;/ref&gt;")) {
-					is_in_ref = false;
-					i += 11;
-					continue;
-				}
-			}
-
-			/**
-			 * remove other kinds of markup. A markup starts with &lt;, and
-			 * there is a &gt; less than 120 characters away
-			 */
-			if (c == '&' && !is_in_ref && !is_in_comment && end_text > i + 4 && c_1 == 'l' && page.charAt(i + 2) == 't' && page.charAt(i + 3) == ';') {
-				// look if there is a &gt; less than 100 characters away. If
-				// not, we don't remove it.
-				int next_gt = page.indexOf("&gt;", i);
-				if (next_gt != -1 && next_gt - 120 < i) {
-					is_in_markup = true;
-					i += 3;
-					continue;
-				}
-			}
-			if (!is_in_ref && c == '&' && end_text > i + 4 && c_1 == 'g' && page.charAt(i + 2) == 't' && page.charAt(i + 3) == ';') {
-				is_in_markup = false;
-				i += 3;
-				continue;
-			}
-
-			/**
-			 * And to finish, unescape remaining xml tags. See the to_unescape
-			 * static variable
-			 */
-			if (c == '&') {
-				boolean we_made_a_replacement = false;
-				for (int unescaped_index = 0; unescaped_index < to_unescape.length; unescaped_index++) {
-					String pattern = to_unescape[unescaped_index];
-					boolean match = true;
-					if (end_text <= i + pattern.length())
-						continue;
-					for (int i_sub = 0; i_sub < pattern.length(); i_sub++) {
-						if (page.charAt(i + i_sub) != pattern.charAt(i_sub)) {
-							match = false;
-							break;
-						}
-					}
-					if (match) {
-						we_made_a_replacement = true;
-						if (!is_in_ref && !is_in_markup && !is_in_comment && !is_in_list && !is_in_div)
-							sb.append(unescaped[unescaped_index]);
-						i += pattern.length() - 1;
-						break;
-					}
-				}
-				if (we_made_a_replacement)
-					continue;
-			}
-
-			if (!is_in_ref && !is_in_markup && !is_in_comment && !is_in_list && !is_in_div) {
-				sb.append(c);
-			}
-		}
-		total_length += sb.length();
-		
-		if(filter_by_size){
-			if (total_length < 100)
-				return null;
-		}
-
-		String text_paragraph = superTrim(sb.toString());
-		if (text_paragraph.length() > 1) {
-			output.add(text_paragraph);
-		}
+		ArrayList<String> output = new ArrayList<String>(paragraphs.size());
+		for (int p = 0; p < paragraphs.size(); p++)
+			output.add(paragraphs.getParagraph(p));
 		return output;
-
 	}
 
-	/** unescape a String in XML. . */
+	/** unescape a String in XML, and trim it. See EntityDecoder */
 	public static String unescapeXML(String text) {
-		if (text.contains("&")) {
-			StringBuilder result = new StringBuilder(text.length());
-			int n = text.length();
-			for (int i = 0; i < n; i++) {
-				char c = text.charAt(i);
-				if (c == '&') {
-					for (int unescaped_index = 0; unescaped_index < to_unescape.length; unescaped_index++) {
-						String pattern = to_unescape[unescaped_index];
-						boolean match = true;
-						if (n <= i + pattern.length())
-							continue;
-						for (int i_sub = 0; i_sub < pattern.length(); i_sub++) {
-							if (text.charAt(i + i_sub) != pattern.charAt(i_sub)) {
-								match = false;
-								break;
-							}
-						}
-						if (match) {
-							result.append(unescaped[unescaped_index]);
-							i += pattern.length() - 1;
-							break;
-						}
-					}
-				} else {
-					result.append(c);
-				}
-			}
-			return result.toString().trim();
-		} else
+		if (text.indexOf('&') == -1)
 			return text.trim();
+		StringBuilder result = new StringBuilder(text.length());
+		EntityDecoder.append(text, 0, text.length(), result);
+		return result.toString().trim();
 	}
 
 	public static String truncateNumberSign(String s) {
@@ -363,7 +76,11 @@ public class Util {
 			return null;
 		if (s.length() <= 1)
 			return s.toUpperCase();
-		return Character.toUpperCase(s.charAt(0)) + s.substring(1, s.length());
+		char first = Character.toUpperCase(s.charAt(0));
+		/** most of the time, nothing to do (and nothing to allocate) */
+		if (first == s.charAt(0))
+			return s;
+		return first + s.substring(1, s.length());
 	}
 
 	public static class PairUriSF {
@@ -448,28 +165,8 @@ public class Util {
 					}
 
 					/** check if a surface form is acceptable */
-					if (pusf.uri.length() == 0)
-						continue;
-					if (pusf.surface_form.length() < min_length_sf)
-						continue;
-					if (pusf.surface_form.length() > max_length_sf)
-						continue;
-					if (Tokenizer.getNbTokens(pusf.surface_form, language) > max_token_sf)
-						continue;
-					if (pusf.uri.charAt(0) == '&' || pusf.uri.charAt(0) == '\"' || pusf.uri.charAt(0) == '(' || pusf.uri.charAt(0) == '\''
-							|| pusf.uri.charAt(0) == '-')
-						continue;
-					if (pusf.surface_form.charAt(0) == '&' || pusf.surface_form.charAt(0) == '\"' || pusf.surface_form.charAt(0) == '('
-							|| pusf.surface_form.charAt(0) == '\'' || pusf.surface_form.charAt(0) == '-')
-						continue;
-
-					/**
-					 * if we arrived here, this is an acceptable couple
-					 * uri/surfaceform
-					 */
-					if (!pusf.surface_form.contains("\t")) {
+					if (isAcceptableSurfaceForm(pusf, max_length_sf, min_length_sf, max_token_sf, language))
 						output.add(pusf);
-					}
 
 				}
 			}
@@ -537,28 +234,8 @@ public class Util {
 				}
 
 				/** check if a surface form is acceptable */
-				if (pusf.uri.length() == 0)
-					continue;
-				if (pusf.surface_form.length() < min_length_sf)
-					continue;
-				if (pusf.surface_form.length() > max_length_sf)
-					continue;
-				if (Tokenizer.getNbTokens(pusf.surface_form, language) > max_token_sf)
-					continue;
-				if (pusf.uri.charAt(0) == '&' || pusf.uri.charAt(0) == '\"' || pusf.uri.charAt(0) == '(' || pusf.uri.charAt(0) == '\''
-						|| pusf.uri.charAt(0) == '-')
-					continue;
-				if (pusf.surface_form.charAt(0) == '&' || pusf.surface_form.charAt(0) == '\"' || pusf.surface_form.charAt(0) == '('
-						|| pusf.surface_form.charAt(0) == '\'' || pusf.surface_form.charAt(0) == '-')
-					continue;
-
-				/**
-				 * if we arrived here, this is an acceptable couple
-				 * uri/surfaceform
-				 */
-				if (!pusf.surface_form.contains("\t")) {
+				if (isAcceptableSurfaceForm(pusf, max_length_sf, min_length_sf, max_token_sf, language))
 					output.add(pusf);
-				}
 
 			}
 
@@ -566,6 +243,57 @@ public class Util {
 		return output;
 	}
 
+	/**
+	 * s without the '' and ''' (italic and bold) of the wikitext. The cleaning
+	 * removes them from the text, but not from the text of the links.
+	 */
+	public static String removeBoldAndItalics(String s) {
+		int i = s.indexOf("''");
+		if (i == -1)
+			return s;
+		int len = s.length();
+		StringBuilder output = new StringBuilder(len);
+		output.append(s, 0, i);
+		while (i < len) {
+			char c = s.charAt(i);
+			if (c == '\'' && i + 1 < len && s.charAt(i + 1) == '\'') {
+				while (i < len && s.charAt(i) == '\'')
+					i++;
+				continue;
+			}
+			output.append(c);
+			i++;
+		}
+		return output.toString();
+	}
+
+	/**
+	 * the restrictions applied to the pairs uri/surface form found in the
+	 * text: see getSurfaceFormsInString
+	 */
+	public static boolean isAcceptableSurfaceForm(PairUriSF pusf, int max_length_sf, int min_length_sf, int max_token_sf, String language) {
+		if (pusf.uri.length() == 0)
+			return false;
+		if (pusf.surface_form.length() < min_length_sf)
+			return false;
+		if (pusf.surface_form.length() > max_length_sf)
+			return false;
+		if (Tokenizer.getNbTokens(pusf.surface_form, language) > max_token_sf)
+			return false;
+		if (pusf.uri.charAt(0) == '&' || pusf.uri.charAt(0) == '\"' || pusf.uri.charAt(0) == '(' || pusf.uri.charAt(0) == '\''
+				|| pusf.uri.charAt(0) == '-')
+			return false;
+		if (pusf.surface_form.charAt(0) == '&' || pusf.surface_form.charAt(0) == '\"' || pusf.surface_form.charAt(0) == '('
+				|| pusf.surface_form.charAt(0) == '\'' || pusf.surface_form.charAt(0) == '-')
+			return false;
+
+		/**
+		 * if we arrived here, this is an acceptable couple
+		 * uri/surfaceform
+		 */
+		return !pusf.surface_form.contains("\t");
+	}
+
 	public static String cleanSurfaceForms(String s) {
 		int len = s.length();
 		StringBuilder output = new StringBuilder();
@@ -615,21 +343,12 @@ public class Util {
 
 	/** get the title of the page. */
 	public static String getTitle(String page) {
-		int start_title = page.indexOf("<title>");
-		int end_title = page.indexOf("</title>", start_title);
-		String title = page.substring(start_title + 7, end_title);
-		title = title.trim();
-		title = unescapeXML(title);
-		return title;
+		return new PageHeader().scan(page).getTitle();
 	}
 
 	/** return true if the mode of the page is "wikitext" */
 	public static boolean isWikiText(String page) {
-		int index_model = page.indexOf("<model>");
-		/** check if this page is the page of an article. */
-		if (index_model == -1 || !page.substring(index_model, index_model + 30).startsWith("<model>wikitext"))
-			return false;
-		return true;
+		return new PageHeader().scan(page).isWikiText();
 	}
 
 	/** escape à la wikipédia */
@@ -648,6 +367,18 @@ public class Util {
 	
 	public final static char[] uri_to_replace=   {   '"',   '#',   '%',   '<',   '>',   '?',   '[',   '\\',   ']',   '^',   '`',   '{',   '|',   '}',   '\''};
 	public final static String[] uri_replacement={ "%22", "%23", "%25", "%3C", "%3E", "%3F", "%5B",  "%5C", "%5D", "%5E", "%60", "%7B", "%7C", "%7D", "%27"};
+	/** uri_replacement indexed by the char to replace (null if it is kept) */
+	private final static String[] uri_escapes=new String[128];
+	static {
+		for (int j=0; j<uri_to_replace.length; j++)
+			uri_escapes[uri_to_replace[j]]=uri_replacement[j];
+	}
+
+	/** max number of suffixes remembered by uriStandardization. The cache is emptied when it is full */
+	public static int URI_CACHE_SIZE=500000;
+	/** raw uri -> standard suffix */
+	private final static ConcurrentHashMap<String, String> uri_cache=new ConcurrentHashMap<String, String>();
+
 	/** Standardization method for any URI, compatible with dbpedia extraction framework
 	 *  - All dbpedia/wikipedia entity Uris start with http://dbpedia.org/resource/
 	 *  - We then apply UrlDecoder.decode() until no '%' char remains
@@ -656,54 +387,74 @@ public class Util {
 	 *  - Several spaces are transformed into one
 	 *  - the suffix is trimmed
      *  - The following characters are percent encoded "#%<>?[\]^`{|}
+     *  
+     *  The same uris come again and again (a resource has many surface forms), so the
+     *  suffixes are remembered (see URI_CACHE_SIZE).
      */
 	public static String uriStandardization(String uri, String optional_prefix, String optional_language){
-		String suffix=uri;
 		String standard_prefix="http://dbpedia.org/resource/";
 		if (optional_language!=null && !optional_language.equals("en"))
 			standard_prefix="http://"+optional_language+".dbpedia.org/resource/";
-		if (suffix.contains("/") && !suffix.endsWith("/")){
+		
+		String suffix=uri_cache.get(uri);
+		if (suffix==null){
+			suffix=standardSuffix(uri);
+			if (uri_cache.size()>=URI_CACHE_SIZE)
+				uri_cache.clear();
+			uri_cache.put(uri, suffix);
+		}
+		
+		if (optional_prefix==null)
+			return standard_prefix+suffix;
+		return optional_prefix+suffix;
+	}
+
+	/** the suffix of uriStandardization, in one pass over the uri once it is decoded */
+	private static String standardSuffix(String uri){
+		String suffix=uri;
+		if (suffix.indexOf('/')!=-1 && !suffix.endsWith("/")){
 			int index_last_slash=suffix.lastIndexOf('/');
 			suffix=uri.substring(index_last_slash+1);
 		}
 		
 		// apply UrlDecoder until there is no % remaining
 		int counter=0;
-		while(suffix.contains("%") && counter<5){
+		while(suffix.indexOf('%')!=-1 && counter<5){
 			try{suffix=URLDecoder.decode(suffix, "UTF-8");
 			}catch(Exception e){};
 			counter++;
 		}
 		
-		// replace ' ' with '\t'
-		suffix = suffix.trim();
-		suffix = suffix.replaceAll(" +", "_");
-		suffix = suffix.replaceAll("\\t", "_");
-		if (suffix.length()==0)
-			suffix= "incorrect_uri";
-		if (!Character.isUpperCase(suffix.charAt(0)))
-			suffix=Character.toUpperCase(suffix.charAt(0))+suffix.substring(1);
+		// trim
+		int start=0;
+		int end=suffix.length();
+		while (start<end && suffix.charAt(start)<=' ')
+			start++;
+		while (end>start && suffix.charAt(end-1)<=' ')
+			end--;
+		if (start==end)
+			return "Incorrect_uri";
 		
-		// escape the following characters "#%<>?[\]^`{|}
-		StringBuilder sb=new StringBuilder();
-		for (int i=0; i<suffix.length(); i++){
+		StringBuilder sb=new StringBuilder(end-start+16);
+		for (int i=start; i<end; i++){
 			char c=suffix.charAt(i);
-			boolean replaced=false;
-			for (int j=0; j<uri_to_replace.length; j++){
-				if (c==uri_to_replace[j]){
-					sb.append(uri_replacement[j]);
-					replaced=true;
-					break;
-				}
-			}
-			if (!replaced)
+			if (i==start && !Character.isUpperCase(c))
+				c=Character.toUpperCase(c);
+			if (c==' '){
+				// several spaces give one '_'
+				while (i+1<end && suffix.charAt(i+1)==' ')
+					i++;
+				sb.append('_');
+			} else if (c=='\t'){
+				sb.append('_');
+			} else if (c<128 && uri_escapes[c]!=null){
+				// escape the following characters "#%<>?[\]^`{|}
+				sb.append(uri_escapes[c]);
+			} else {
 				sb.append(c);
+			}
 		}
-		suffix=sb.toString();
-		
-		if (optional_prefix==null)
-			return standard_prefix+suffix;
-		return optional_prefix+suffix;
+		return sb.toString();
 	}
 	
 	/** split s with ",," quite fast */
@@ -754,16 +505,8 @@ public class Util {
 
 	private static boolean[] is_white_map = null;
 
-	/**
-	 * The java trim() function, but faster.
-	 * 
-	 * @return
-	 */
-	private static final String superTrim(String s) {
-		if (s==null)
-			return "";
-		if (s.length()==0)
-			return "";
+	/** true if c is a unicode separator. See javadoc of Character.isWhitespace(c) */
+	static boolean isWhite(char c) {
 		/** initialize the lookup */
 		if (is_white_map == null) {
 			synchronized (Util.class) {
@@ -780,29 +523,7 @@ public class Util {
 				}
 			}
 		}
-		
-		/** trim properly talking */
-		int real_start=-1;
-		int len=s.length();
-		for (int i=0; i<len; i++){
-			if (!is_white_map[s.charAt(i)]){
-				real_start=i;
-				break;
-			}
-		}
-		if (real_start==-1)
-			return "";
-		int real_end=-1;
-		for (int i=len-1; i>=0; i--){
-			if (!is_white_map[s.charAt(i)]){
-				real_end=i+1;
-				break;
-			}
-		}
-		// Should never be true
-		if (real_start==-1)
-			return "";
-		return s.substring(real_start, real_end);
+		return is_white_map[c];
 	}
 
 	public static void main(String[] args) {
@@ -821,20 +542,15 @@ public class Util {
 	 * @return
 	 */
 	public static String getResolvedPageUri(String page, String language) {
-		/** look for the title of the page */
-		String title = Util.getTitle(page);
-
-		if (page.contains("<redirect title=")) {
-			int start_redirect = page.indexOf("<redirect title=");
-			int end_redirect = page.indexOf("/>", start_redirect);
-			String redirect = page.substring(start_redirect + 16, end_redirect);
-			redirect = redirect.trim();
-			redirect = redirect.replaceAll("\"", "");
-			redirect = Util.unescapeXML(redirect);
-			return uriStandardization(redirect, null, language);
+		return getResolvedPageUri(new PageHeader().scan(page), language);
+	}
 
+	/** same as above, on a page that has already been scanned */
+	public static String getResolvedPageUri(PageHeader header, String language) {
+		if (header.isRedirect()) {
+			return uriStandardization(header.getRedirect(), null, language);
 		} else {
-			return uriStandardization(title, null, language);
+			return uriStandardization(header.getTitle(), null, language);
 		}
 	}
 
@@ -845,10 +561,6 @@ public class Util {
 	 * @return
 	 */
 	public static boolean pageRedirects(String page) {
-		if (page.contains("<redirect title=")) {
-
-			return true;
-		}
-		return false;
+		return new PageHeader().scan(page).isRedirect();
 	}
 }
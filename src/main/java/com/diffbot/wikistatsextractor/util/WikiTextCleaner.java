@@ -0,0 +1,451 @@
+package com.diffbot.wikistatsextractor.util;
+
+import java.util.Arrays;
+
+/**
+ * The wikitext cleaner behind Util.getCleanTextFromPage, see its description
+ * for what is removed. The text of the page is walked once, and unless the
+ * links are kept as they are ([[uri|text]]), each link is replaced by its text
+ * and remembered in the paragraph, with the uri it points to. The links
+ * nested in another one ([[File:x.jpg|a [[Go]] player]]) are remembered as
+ * well, even if they are not in the text.
+ *
+ * The paragraphs go in a ParagraphBuffer owned by the caller, that is reused
+ * from one page to the next, so that cleaning a page does not allocate any
+ * String but the uris.
+ *
+ * So a worker gets in one go the clean text and the pairs uri/surface form,
+ * where it used to clean the page, look for the links in each paragraph, and
+ * then clean them.
+ *
+ * The page is cleaned in linear time: the only lookahead (the next &gt; of a
+ * markup or of a reference) is remembered, so that no part of the page is
+ * searched twice, and the pipes and ':' of the links are counted as they are
+ * read, a nested link adding its own to the one around it when it is closed.
+ * The uri and the surface form of a link are only copied if it is shorter
+ * than MAX_LINK_LENGTH chars. Still, a page longer than MAX_PAGE_LENGTH is
+ * truncated, and a page that takes more than MAX_PAGE_STEPS steps is
+ * skipped, both being logged with their title. The steps are counted, not
+ * timed, so that the output does not depend on the load of the machine.
+ *
+ * An instance is not thread safe: each worker keeps its own.
+ *
+ * @author sam
+ *
+ */
+public class WikiTextCleaner {
+	/** the chars of text of a page that are cleaned, the rest is ignored. 0 for no limit */
+	public static int MAX_PAGE_LENGTH = 1000000;
+	/**
+	 * number of steps after which the cleaning of a page is given up: one per
+	 * char of the page, and one per char copied for a link. 0 for no limit
+	 */
+	public static int MAX_PAGE_STEPS = 10000000;
+	/** a longer link is replaced by its text, but not remembered */
+	public static int MAX_LINK_LENGTH = 1000;
+
+	boolean ignore_lists, ignore_ref, keep_links, filter_by_size;
+	/** if false, the links are replaced by their text but not remembered */
+	boolean annotate_links = true;
+
+	/** start of the content of the links being read, one per level of [[ */
+	private int[] link_starts = new int[8];
+	/** and for each one, what was read of it so far: its first and last '|' (-1 if none), and whether it has a ':' */
+	private int[] link_first_pipes = new int[8];
+	private int[] link_last_pipes = new int[8];
+	private boolean[] link_colons = new boolean[8];
+	/** the steps spent on the current page, see MAX_PAGE_STEPS */
+	private long nb_steps;
+	/** where the uris are unescaped */
+	private StringBuilder scratch = new StringBuilder();
+	/** the next &gt; of the page, see nextGt */
+	private int next_gt;
+
+	public WikiTextCleaner(boolean ignore_lists, boolean ignore_ref, boolean keep_links, boolean filter_by_size) {
+		this.ignore_lists = ignore_lists;
+		this.ignore_ref = ignore_ref;
+		this.keep_links = keep_links;
+		this.filter_by_size = filter_by_size;
+	}
+
+	public void setAnnotateLinks(boolean annotate_links) {
+		this.annotate_links = annotate_links;
+	}
+
+	/**
+	 * put the paragraphs of the page in output, after clearing it. Return
+	 * false (output being empty) if it is not an article, or if it is too
+	 * short and filter_by_size is set.
+	 */
+	public boolean clean(PageHeader header, ParagraphBuffer output) {
+		output.clear();
+		/** if it is not a wikitext page, return false */
+		if (!header.isWikiText() || !header.hasText())
+			return false;
+		String page = header.getPage();
+		int index_text = header.text_start;
+		int end_text = header.text_end;
+
+		if(filter_by_size){
+			/** text is too short */
+			if (end_text - index_text < 100)
+				return false;
+		}
+
+		if (MAX_PAGE_LENGTH > 0 && end_text - index_text > MAX_PAGE_LENGTH) {
+			System.out.println("page too long, truncated: " + header.getTitle() + " (" + (end_text - index_text) + " chars)");
+			end_text = index_text + MAX_PAGE_LENGTH;
+		}
+		long max_steps = MAX_PAGE_STEPS > 0 ? MAX_PAGE_STEPS : Long.MAX_VALUE;
+		nb_steps = 0;
+		next_gt = -1;
+
+		StringBuilder sb = output.text;
+		int nb_accolades = 0;
+		int nb_semi_accolades = 0; // detects the "{|"
+		boolean is_in_ref = false;
+		boolean is_in_markup = false;
+		boolean is_in_comment = false;
+		boolean is_in_div = false;
+		int div_level=0;
+		boolean is_in_list = false;
+		int nb_brackets = 0;
+		/** the chars of the innermost link before this one are counted in its link_* */
+		int link_read = 0;
+		int total_length = 0;
+
+		for (int i = index_text - 1; i < end_text - 1; i++) {
+			if (++nb_steps > max_steps) {
+				System.out.println("page too slow to clean, skipped: " + header.getTitle() + " (" + (end_text - index_text) + " chars)");
+				output.clear();
+				return false;
+			}
+			char c = page.charAt(i);
+			char c_1 = page.charAt(i + 1);
+			// for good measure, the text will virtually starts with a '\n' (the
+			// list pattern includes '\n')
+			if (i == index_text - 1) {
+				c = '\n';
+			}
+
+			/** first we remove everything between {{ }} */
+			if (c == '{' && c_1 == '{') {
+				nb_accolades++;
+				i++;
+				continue;
+			}
+			if (c == '}' && c_1 == '}') {
+				nb_accolades--;
+				i++;
+				continue;
+			}
+			if (nb_accolades > 0)
+				continue;
+
+			/** Then we remove everything between {| |} */
+			if (c == '{' && c_1 == '|') {
+				nb_semi_accolades++;
+				i++;
+				continue;
+			}
+			if (c == '|' && c_1 == '}') {
+				nb_semi_accolades--;
+
+				i++;
+				continue;
+			}
+			if (nb_semi_accolades > 0)
+				continue;
+
+			/**
+			 * if we specify it, we can ignore everything that is in a list
+			 * (start with \n* or \n# or \n:).
+			 */
+			if (ignore_lists && c == '\n' && (c_1 == '*' || c_1 == '#' || c_1 == ':')) {
+				i++;
+				is_in_list = true;
+				i--;
+				continue;
+			}
+			if (ignore_lists && c == '\n' && is_in_list)
+				is_in_list = false;
+			if (ignore_lists && is_in_list)
+				continue;
+
+			/**
+			 * if it is a new paragraph, so either \n\n or =\n or \n=, we close
+			 * the one being built in output
+			 */
+			if (c == '\n' && (c_1 == '\n' || c_1 == '=' || page.charAt(i - 1) == '=')) {
+				int length = output.currentLength();
+				if (length > 1) {
+					output.closeCurrent();
+					total_length += length;
+				} else {
+					output.discardCurrent();
+				}
+			}
+
+			/** deal with the comments (&lt;!-- --&gt;) */
+			if (c == '&' && c_1 == 'l' && end_text > i + 7 && page.startsWith("&lt;!--", i)) {
+				is_in_comment = true;
+				i += 6;
+				continue;
+			}
+			if (c == '-' && c_1 == '-' && end_text > i + 6 && page.startsWith("--&gt;", i)) {
+				is_in_comment = false;
+				i += 5;
+				continue;
+			}
+			
+			/** Sometimes there are some html div (yeah...)  in the dump, we try to remove then. */
+			if (c == '&' && c_1 == 'l' && end_text > i + 7 && page.startsWith("&lt;div", i)) {
+				is_in_div = true;
+				div_level++;
+				i += 6;
+				continue;
+			}
+			if (c == '&' && c_1 == 'l' && end_text > i + 6 && page.startsWith("&lt;/div&gt;", i)) {
+				div_level=Math.max(0, div_level-1);
+				if (div_level==0)
+					is_in_div = false;
+				i += 11;
+				continue;
+			}
+
+			/** remove the ''' ''' (bold) and === === (title) */
+			if (c == '\'' && c_1 == '\'') {
+				while (i < end_text && page.charAt(i) == '\'')
+					i++;
+				i--;
+				continue;
+			}
+			if (c == '=' && c_1 == '=') {
+				while (i < end_text && page.charAt(i) == '=')
+					i++;
+				i--;
+				continue;
+			}
+
+			/**
+			 * deals with the links. Unless we keep them as they are, a link
+			 * is replaced by its text, and remembered (see closeLink)
+			 */
+			if (!keep_links) {
+				if (c == '[' && c_1 == '[') {
+					if (nb_brackets > 0)
+						readLink(page, link_read, i, nb_brackets - 1);
+					if (nb_brackets == link_starts.length)
+						growLinks();
+					link_starts[nb_brackets] = i + 2;
+					link_first_pipes[nb_brackets] = -1;
+					link_last_pipes[nb_brackets] = -1;
+					link_colons[nb_brackets] = false;
+					nb_brackets++;
+					link_read = i + 2;
+					i++;
+					continue;
+				}
+
+				if (c == ']' && c_1 == ']') {
+					// a "]]" that closes nothing is dropped
+					if (nb_brackets > 0) {
+						int level = --nb_brackets;
+						readLink(page, link_read, i, level);
+						if (!is_in_ref && !is_in_comment)
+							closeLink(page, level, i, output);
+						/** the link is part of the one around it */
+						if (level > 0) {
+							if (link_first_pipes[level - 1] == -1)
+								link_first_pipes[level - 1] = link_first_pipes[level];
+							if (link_last_pipes[level] != -1)
+								link_last_pipes[level - 1] = link_last_pipes[level];
+							link_colons[level - 1] |= link_colons[level];
+						}
+						link_read = i + 2;
+					}
+					i++;
+					continue;
+				}
+				if (nb_brackets > 0)
+					continue;
+			}
+
+			if (ignore_ref) {
+				/** deal with the references (&lt;ref&gt;) */
+				if (c == '&' && c_1 == 'l' && end_text > i + 7 && page.startsWith("&lt;ref", i)) {
+					is_in_ref = true;
+					i += 6;
+					/** particular case of the <ref name="thing"/> */
+					int j = i < end_text - 5 ? Math.min(nextGt(page, i), end_text - 5) : i;
+					if (page.charAt(j - 1) == '/') {
+						is_in_ref = false;
+						i = j + 3;
+					}
+					continue;
+				}
+
+				if (c == '&' && c_1 == 'l' && end_text > i + 12 && page.startsWith("&lt;/ref&gt;", i)) {
+					is_in_ref = false;
+					i += 11;
+					continue;
+				}
+			}
+
+			/**
+			 * remove other kinds of markup. A markup starts with &lt;, and
+			 * there is a &gt; less than 120 characters away
+			 */
+			if (c == '&' && !is_in_ref && !is_in_comment && end_text > i + 4 && c_1 == 'l' && page.charAt(i + 2) == 't' && page.charAt(i + 3) == ';') {
+				// look if there is a &gt; less than 100 characters away. If
+				// not, we don't remove it.
+				if (nextGt(page, i) - 120 < i) {
+					is_in_markup = true;
+					i += 3;
+					continue;
+				}
+			}
+			if (!is_in_ref && c == '&' && end_text > i + 4 && c_1 == 'g' && page.charAt(i + 2) == 't' && page.charAt(i + 3) == ';') {
+				is_in_markup = false;
+				i += 3;
+				continue;
+			}
+
+			/**
+			 * And to finish, decode the remaining entities. See EntityDecoder
+			 */
+			if (c == '&') {
+				boolean visible = !is_in_ref && !is_in_markup && !is_in_comment && !is_in_list && !is_in_div;
+				int after = EntityDecoder.decode(page, i, end_text, visible ? sb : null);
+				if (after != -1) {
+					i = after - 1;
+					continue;
+				}
+			}
+
+			if (!is_in_ref && !is_in_markup && !is_in_comment && !is_in_list && !is_in_div) {
+				sb.append(c);
+			}
+		}
+		total_length += output.currentLength();
+
+		if(filter_by_size){
+			if (total_length < 100) {
+				output.clear();
+				return false;
+			}
+		}
+
+		output.closeCurrent();
+		return true;
+	}
+
+	/**
+	 * the position of the first &gt; at or after i, Integer.MAX_VALUE if
+	 * there is none. The one found is kept until i goes past it, so the page
+	 * is searched only once for all the &lt; and the references.
+	 */
+	private int nextGt(String page, int i) {
+		if (next_gt < i) {
+			next_gt = page.indexOf("&gt;", i);
+			if (next_gt == -1)
+				next_gt = Integer.MAX_VALUE;
+		}
+		return next_gt;
+	}
+
+	/** add the pipes and the ':' of page[from, to[ to the link of that level */
+	private void readLink(String page, int from, int to, int level) {
+		nb_steps += to - from;
+		for (int k = from; k < to; k++) {
+			char c = page.charAt(k);
+			if (c == ':') {
+				link_colons[level] = true;
+			} else if (c == '|') {
+				if (link_first_pipes[level] == -1)
+					link_first_pipes[level] = k;
+				link_last_pipes[level] = k;
+			}
+		}
+	}
+
+	private void growLinks() {
+		int length = 2 * link_starts.length;
+		link_starts = Arrays.copyOf(link_starts, length);
+		link_first_pipes = Arrays.copyOf(link_first_pipes, length);
+		link_last_pipes = Arrays.copyOf(link_last_pipes, length);
+		link_colons = Arrays.copyOf(link_colons, length);
+	}
+
+	/**
+	 * the link of that level has just been closed at end, and all of its
+	 * content has been read. If it is not nested in another one, its text goes
+	 * in output. It is remembered if it points to an article (no namespace, no
+	 * anchor alone), with the uri and the surface form getSurfaceFormsInString
+	 * would find.
+	 */
+	private void closeLink(String page, int level, int end, ParagraphBuffer output) {
+		if (link_colons[level])
+			return;
+		StringBuilder sb = output.text;
+		int start = link_starts[level];
+		int first_pipe = link_first_pipes[level];
+		int last_pipe = link_last_pipes[level];
+		boolean top_level = level == 0;
+		int text_start = sb.length();
+		if (top_level) {
+			int from = last_pipe == -1 ? start : last_pipe + 1;
+			nb_steps += end - from;
+			appendTrimmed(page, from, end, sb);
+		}
+		if (!annotate_links || end - start > MAX_LINK_LENGTH)
+			return;
+		nb_steps += end - start;
+
+		/** same restrictions as getSurfaceFormsInString */
+		int content_start = start;
+		int content_end = end;
+		while (content_start < content_end && page.charAt(content_start) <= ' ')
+			content_start++;
+		while (content_end > content_start && page.charAt(content_end - 1) <= ' ')
+			content_end--;
+		if (content_start == content_end || page.charAt(content_start) == '#' || page.charAt(content_end - 1) == '|')
+			return;
+		String uri = Util.removeBoldAndItalics(unescape(page, content_start, first_pipe == -1 ? content_end : first_pipe));
+		int index_diese = uri.indexOf('#');
+		if (index_diese != -1)
+			uri = uri.substring(0, index_diese).trim();
+		if (uri.length() == 0)
+			return;
+
+		if (top_level)
+			output.addLink(text_start, sb.length(), uri, null);
+		else
+			output.addLink(-1, -1, uri, unescape(page, first_pipe == -1 ? content_start : first_pipe + 1, content_end));
+	}
+
+	/**
+	 * append page[start, end[ to sb, its entities decoded, and trimmed like
+	 * Util.unescapeXML would
+	 */
+	private static void appendTrimmed(String page, int start, int end, StringBuilder sb) {
+		int sb_start = sb.length();
+		EntityDecoder.append(page, start, end, sb);
+		int real_start = sb_start;
+		while (real_start < sb.length() && sb.charAt(real_start) <= ' ')
+			real_start++;
+		int real_end = sb.length();
+		while (real_end > real_start && sb.charAt(real_end - 1) <= ' ')
+			real_end--;
+		sb.setLength(real_end);
+		sb.delete(sb_start, real_start);
+	}
+
+	/** same as Util.unescapeXML(page.substring(start, end)) */
+	private String unescape(String page, int start, int end) {
+		scratch.setLength(0);
+		appendTrimmed(page, start, end, scratch);
+		return scratch.toString();
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.diffbot.wikistatsextractor.util;
+
+/**
+ * Splits the text of a language that does not separate its words with spaces
+ * (chinese, japanese, thai) in words. It is registered for a language with
+ * Tokenizer.setSegmenter, and the Tokenizers of that language give it the
+ * runs of chars of these scripts (Han, kana, Thai).
+ *
+ * A segmenter is shared by all the Tokenizers of its language, so it has to
+ * be thread safe.
+ *
+ * @author sam
+ *
+ */
+public interface WordSegmenter {
+
+	/** the end of the word that starts at start, in s[start, end[. At least start+1 */
+	public int nextWord(CharSequence s, int start, int end);
+
+}